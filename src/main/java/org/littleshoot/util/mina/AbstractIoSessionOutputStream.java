@@ -2,8 +2,16 @@ package org.littleshoot.util.mina;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.CloseFuture;
+import org.littleshoot.mina.common.IoFuture;
+import org.littleshoot.mina.common.IoFutureListener;
 import org.littleshoot.mina.common.IoSession;
 import org.littleshoot.mina.common.WriteFuture;
 import org.littleshoot.util.ThreadUtils;
@@ -11,27 +19,143 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * An abstract utility class for creating {@link OutputStream}s from 
+ * An abstract utility class for creating {@link OutputStream}s from
  * MINA {@link IoSession}s for arbitrary message types.  This allows users
  * to create streams from specialized methods other than {@link ByteBuffer}s.
+ * <p>
+ * By default each write waits for the session to write the message.  With a
+ * write window set, writes are pipelined instead -- they only wait when the
+ * window of outstanding writes is full, and {@link #flush()} waits for all
+ * outstanding writes and reports any that failed.
+ * <p>
+ * Writers -- and {@link #close()}, waiting for the session to close -- wait
+ * on {@link java.util.concurrent.locks} conditions signalled from future 
+ * listeners rather than joining the futures or waiting on monitors, so 
+ * they're safe to call from virtual threads.
  *
  * @param <T> The type of message it's an {@link OutputStream} for.
  */
-public abstract class AbstractIoSessionOutputStream<T> extends OutputStream 
+public abstract class AbstractIoSessionOutputStream<T> extends OutputStream
     {
     private final Logger m_log = LoggerFactory.getLogger(getClass());
-    
+
     protected final IoSession m_ioSession;
 
     protected WriteFuture m_lastWriteFuture;
 
-    protected AbstractIoSessionOutputStream(final IoSession session) 
+    /**
+     * Keeps writes in order.
+     */
+    private final Lock m_writeLock = new ReentrantLock();
+
+    /**
+     * Guards the outstanding write counts and whether the session has 
+     * closed.
+     */
+    private final Lock m_windowLock = new ReentrantLock();
+
+    private final Condition m_windowChanged = m_windowLock.newCondition();
+
+    private volatile int m_maxOutstandingWrites;
+
+    private volatile int m_maxOutstandingBytes;
+
+    private int m_outstandingWrites;
+
+    private long m_outstandingBytes;
+
+    private boolean m_writeFailed;
+
+    private boolean m_sessionClosed;
+
+    private final AtomicLong m_bytesWritten = new AtomicLong();
+
+    private final AtomicLong m_writeWaitNanos = new AtomicLong();
+
+    protected AbstractIoSessionOutputStream(final IoSession session)
         {
         this.m_ioSession = session;
         }
 
+    /**
+     * Sets the window of writes that may be outstanding at once.  Writes
+     * only block once this many writes or bytes are waiting to be written.
+     * Setting both limits to <tt>0</tt> makes every write wait for the
+     * session, which is the default.
+     *
+     * @param maxOutstandingWrites The maximum number of outstanding writes,
+     * or <tt>0</tt> for no limit.
+     * @param maxOutstandingBytes The maximum number of outstanding bytes, or
+     * <tt>0</tt> for no limit.  Only {@link ByteBuffer} messages are counted.
+     */
+    public void setWriteWindow(final int maxOutstandingWrites,
+        final int maxOutstandingBytes)
+        {
+        if (maxOutstandingWrites < 0 || maxOutstandingBytes < 0)
+            {
+            throw new IllegalArgumentException("Negative write window");
+            }
+        m_windowLock.lock();
+        try
+            {
+            m_maxOutstandingWrites = maxOutstandingWrites;
+            m_maxOutstandingBytes = maxOutstandingBytes;
+            m_windowChanged.signalAll();
+            }
+        finally
+            {
+            m_windowLock.unlock();
+            }
+        }
+
+    /**
+     * Returns the total number of bytes written to the session.  Only 
+     * {@link ByteBuffer} messages are counted.
+     * 
+     * @return The number of bytes written.
+     */
+    public long getBytesWritten()
+        {
+        return m_bytesWritten.get();
+        }
+
+    /**
+     * Returns the number of bytes written to the session that it hasn't 
+     * finished writing yet.  Only {@link ByteBuffer} messages are counted.
+     * 
+     * @return The number of outstanding bytes.
+     */
+    public long getOutstandingBytes()
+        {
+        m_windowLock.lock();
+        try
+            {
+            return m_outstandingBytes;
+            }
+        finally
+            {
+            m_windowLock.unlock();
+            }
+        }
+
+    /**
+     * Returns the total time writers have spent waiting for the session to
+     * write their data.
+     * 
+     * @return The time spent waiting for writes in nanoseconds.
+     */
+    public long getWriteWaitNanos()
+        {
+        return m_writeWaitNanos.get();
+        }
+
+    private boolean isPipelined()
+        {
+        return m_maxOutstandingWrites > 0 || m_maxOutstandingBytes > 0;
+        }
+
     @Override
-    public void close() throws IOException 
+    public void close() throws IOException
         {
         m_log.debug("Closing output stream from: "+ThreadUtils.dumpStack());
         try
@@ -40,7 +164,43 @@ public abstract class AbstractIoSessionOutputStream<T> extends OutputStream
             }
         finally
             {
-            m_ioSession.close().join();
+            awaitClose(m_ioSession.close());
+            }
+        }
+
+    /**
+     * Waits for the session to close.  Like joining the future this ignores
+     * interrupts, but it keeps the interrupt status for the caller.
+     */
+    private void awaitClose(final CloseFuture future)
+        {
+        future.addListener(new IoFutureListener()
+            {
+            public void operationComplete(final IoFuture closed)
+                {
+                m_windowLock.lock();
+                try
+                    {
+                    m_sessionClosed = true;
+                    m_windowChanged.signalAll();
+                    }
+                finally
+                    {
+                    m_windowLock.unlock();
+                    }
+                }
+            });
+        m_windowLock.lock();
+        try
+            {
+            while (!m_sessionClosed)
+                {
+                m_windowChanged.awaitUninterruptibly();
+                }
+            }
+        finally
+            {
+            m_windowLock.unlock();
             }
         }
 
@@ -52,29 +212,238 @@ public abstract class AbstractIoSessionOutputStream<T> extends OutputStream
             }
         }
 
-    protected synchronized void write(final T message) throws IOException
+    protected void write(final T message) throws IOException
         {
         m_log.debug("Writing message: {}", message);
-        checkClosed();
+        m_writeLock.lock();
+        try
+            {
+            checkClosed();
+            final int size = sizeOf(message);
+            if (isPipelined())
+                {
+                awaitWindow(size);
+                send(message, size);
+                return;
+                }
+            send(message, size);
+            awaitWrites(m_ioSession.getWriteTimeoutInMillis());
+            m_log.debug("Finshing writing message...");
+            }
+        finally
+            {
+            m_writeLock.unlock();
+            }
+        }
+
+    /**
+     * Writes the specified message without waiting for it to be written or
+     * for room in the write window.
+     *
+     * @param message The message to write.
+     * @throws IOException If the session is closed.
+     */
+    protected void writeWithoutWaiting(final T message) throws IOException
+        {
+        m_writeLock.lock();
+        try
+            {
+            checkClosed();
+            send(message, sizeOf(message));
+            }
+        finally
+            {
+            m_writeLock.unlock();
+            }
+        }
+
+    private void send(final T message, final int size)
+        {
+        m_windowLock.lock();
+        try
+            {
+            m_outstandingWrites++;
+            m_outstandingBytes += size;
+            }
+        finally
+            {
+            m_windowLock.unlock();
+            }
+        m_bytesWritten.addAndGet(size);
         m_lastWriteFuture = m_ioSession.write(message);
-        m_lastWriteFuture.join(m_ioSession.getWriteTimeoutInMillis());
-        m_log.debug("Finshing writing message...");
+        m_lastWriteFuture.addListener(new IoFutureListener()
+            {
+            public void operationComplete(final IoFuture future)
+                {
+                m_windowLock.lock();
+                try
+                    {
+                    m_outstandingWrites--;
+                    m_outstandingBytes -= size;
+                    if (!((WriteFuture) future).isWritten())
+                        {
+                        m_writeFailed = true;
+                        }
+                    m_windowChanged.signalAll();
+                    }
+                finally
+                    {
+                    m_windowLock.unlock();
+                    }
+                }
+            });
         }
 
-    @Override
-    public synchronized void flush() throws IOException
+    private static int sizeOf(final Object message)
         {
-        m_log.debug("Flushing IoSession output stream...");
-        if (m_lastWriteFuture == null)
+        if (message instanceof ByteBuffer)
+            {
+            return ((ByteBuffer) message).remaining();
+            }
+        return 0;
+        }
+
+    /**
+     * Waits until there's room in the write window for a message of the
+     * specified size.
+     */
+    private void awaitWindow(final int size) throws IOException
+        {
+        m_windowLock.lock();
+        try
+            {
+            final long timeout = m_ioSession.getWriteTimeoutInMillis();
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (windowFull(size))
+                {
+                checkWriteFailed();
+                final long start = System.nanoTime();
+                if (timeout <= 0)
+                    {
+                    m_windowChanged.await();
+                    }
+                else if (nanos <= 0)
+                    {
+                    throw new IOException(
+                        "Timed out waiting for outstanding writes");
+                    }
+                else
+                    {
+                    nanos = m_windowChanged.awaitNanos(nanos);
+                    }
+                m_writeWaitNanos.addAndGet(System.nanoTime() - start);
+                }
+            checkWriteFailed();
+            }
+        catch (final InterruptedException e)
+            {
+            final IOException ioe = new IOException(
+                "Interrupted while waiting for outstanding writes");
+            ioe.initCause(e);
+            throw ioe;
+            }
+        finally
+            {
+            m_windowLock.unlock();
+            }
+        }
+
+    /**
+     * Waits for all outstanding writes to complete.  
+     * 
+     * @param timeout The maximum time to wait in milliseconds, or 
+     * <tt>0</tt> to wait indefinitely.
+     * @return <code>true</code> if all writes completed, otherwise 
+     * <code>false</code>.
+     */
+    private boolean awaitWrites(final long timeout) throws IOException
+        {
+        m_windowLock.lock();
+        try
+            {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (m_outstandingWrites > 0)
+                {
+                final long start = System.nanoTime();
+                if (timeout <= 0)
+                    {
+                    m_windowChanged.await();
+                    }
+                else if (nanos <= 0)
+                    {
+                    return false;
+                    }
+                else
+                    {
+                    nanos = m_windowChanged.awaitNanos(nanos);
+                    }
+                m_writeWaitNanos.addAndGet(System.nanoTime() - start);
+                }
+            return true;
+            }
+        catch (final InterruptedException e)
+            {
+            final IOException ioe = new IOException(
+                "Interrupted while waiting for outstanding writes");
+            ioe.initCause(e);
+            throw ioe;
+            }
+        finally
+            {
+            m_windowLock.unlock();
+            }
+        }
+
+    private boolean windowFull(final int size)
+        {
+        if (m_outstandingWrites == 0)
             {
-            return;
+            return false;
             }
+        if (m_maxOutstandingWrites > 0 &&
+            m_outstandingWrites >= m_maxOutstandingWrites)
+            {
+            return true;
+            }
+        return m_maxOutstandingBytes > 0 &&
+            m_outstandingBytes + size > m_maxOutstandingBytes;
+        }
 
-        m_lastWriteFuture.join();
-        if (!m_lastWriteFuture.isWritten())
+    /**
+     * Throws an exception if any outstanding write failed.  Must be called
+     * holding the window lock.
+     */
+    private void checkWriteFailed() throws IOException
+        {
+        if (m_writeFailed)
             {
+            m_writeFailed = false;
             throw new IOException(
-                    "The bytes could not be written to the session");
+                "The bytes could not be written to the session");
+            }
+        }
+
+    @Override
+    public void flush() throws IOException
+        {
+        m_log.debug("Flushing IoSession output stream...");
+        m_writeLock.lock();
+        try
+            {
+            awaitWrites(0);
+            m_windowLock.lock();
+            try
+                {
+                checkWriteFailed();
+                }
+            finally
+                {
+                m_windowLock.unlock();
+                }
+            }
+        finally
+            {
+            m_writeLock.unlock();
             }
         }
     }
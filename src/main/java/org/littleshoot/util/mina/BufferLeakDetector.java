@@ -0,0 +1,349 @@
+package org.littleshoot.util.mina;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.littleshoot.mina.common.BaseByteBuffer;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.ByteBufferAllocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ByteBufferAllocator} that watches a sample of the buffers
+ * another allocator hands out, to find buffers that are never released.
+ * <p>
+ * One in every <code>sampleInterval</code> allocations is tracked, along
+ * with the stack it was allocated from.  A tracked buffer that's garbage
+ * collected before its final {@link ByteBuffer#release()} is logged as a
+ * leak -- with a pooling allocator its memory never goes back to the pool.
+ * A tracked buffer that's still held after the maximum hold time is logged
+ * once as retained, which catches buffers parked in fields like a decoding
+ * state's partial line.  Both are reported with the allocation stack.<p>
+ *
+ * Checks piggyback on allocations, so there's no extra thread.  Untracked
+ * buffers cost one counter increment, so a large sample interval is cheap
+ * enough to leave on in production.
+ */
+public final class BufferLeakDetector implements ByteBufferAllocator
+    {
+
+    private static final Logger LOG =
+        LoggerFactory.getLogger(BufferLeakDetector.class);
+
+    /**
+     * How often allocations check for buffers held too long.
+     */
+    private static final long RETENTION_CHECK_NANOS =
+        TimeUnit.SECONDS.toNanos(1);
+
+    private final ByteBufferAllocator m_delegate;
+
+    private final int m_sampleInterval;
+
+    private final long m_maxHoldNanos;
+
+    private final AtomicLong m_allocations = new AtomicLong();
+
+    private final ReferenceQueue<TrackedByteBuffer> m_collected =
+        new ReferenceQueue<TrackedByteBuffer>();
+
+    /**
+     * The records for all live tracked buffers.  This keeps the records
+     * themselves reachable until the buffer is released or collected.
+     */
+    private final Map<Record, Boolean> m_records =
+        new ConcurrentHashMap<Record, Boolean>();
+
+    private final AtomicLong m_lastRetentionCheck =
+        new AtomicLong(System.nanoTime());
+
+    private final AtomicLong m_leaks = new AtomicLong();
+
+    private final AtomicLong m_retained = new AtomicLong();
+
+    /**
+     * Makes a detector around the shared pooling allocator MINA's global
+     * allocator.  {@link SizeClassByteBufferAllocator#install()} leaves it
+     * in place.
+     *
+     * @param sampleInterval Track one in this many allocations.
+     * @param maxHoldMillis Report tracked buffers held longer than this, or
+     * <tt>0</tt> to only report leaks.
+     * @return The detector.
+     */
+    public static BufferLeakDetector install(final int sampleInterval,
+        final long maxHoldMillis)
+        {
+        final SizeClassByteBufferAllocator shared =
+            SizeClassByteBufferAllocator.shared();
+        synchronized (shared)
+            {
+            final BufferLeakDetector detector = 
+                new BufferLeakDetector(shared, sampleInterval, maxHoldMillis);
+            ByteBuffer.setAllocator(detector);
+            return detector;
+            }
+        }
+
+    /**
+     * Creates a new detector.
+     *
+     * @param delegate The allocator to allocate buffers from.
+     * @param sampleInterval Track one in this many allocations.  Use
+     * <tt>1</tt> to track every buffer.
+     * @param maxHoldMillis Report tracked buffers held longer than this, or
+     * <tt>0</tt> to only report leaks.
+     */
+    public BufferLeakDetector(final ByteBufferAllocator delegate,
+        final int sampleInterval, final long maxHoldMillis)
+        {
+        if (sampleInterval <= 0)
+            {
+            throw new IllegalArgumentException("Bad sample interval: " +
+                sampleInterval);
+            }
+        if (maxHoldMillis < 0)
+            {
+            throw new IllegalArgumentException("Bad max hold time: " +
+                maxHoldMillis);
+            }
+        m_delegate = delegate;
+        m_sampleInterval = sampleInterval;
+        m_maxHoldNanos = TimeUnit.MILLISECONDS.toNanos(maxHoldMillis);
+        }
+
+    public ByteBuffer allocate(final int capacity, final boolean direct)
+        {
+        final ByteBuffer buf = m_delegate.allocate(capacity, direct);
+        if (m_allocations.incrementAndGet() % m_sampleInterval != 0)
+            {
+            return buf;
+            }
+        pollLeaks();
+        if (m_maxHoldNanos > 0)
+            {
+            final long now = System.nanoTime();
+            final long last = m_lastRetentionCheck.get();
+            if (now - last >= RETENTION_CHECK_NANOS &&
+                m_lastRetentionCheck.compareAndSet(last, now))
+                {
+                checkRetention(now);
+                }
+            }
+        return new TrackedByteBuffer(buf);
+        }
+
+    public ByteBuffer wrap(final java.nio.ByteBuffer nioBuffer)
+        {
+        return m_delegate.wrap(nioBuffer);
+        }
+
+    public void dispose()
+        {
+        m_delegate.dispose();
+        }
+
+    /**
+     * Returns the allocator buffers are allocated from.
+     *
+     * @return The allocator.
+     */
+    public ByteBufferAllocator getDelegate()
+        {
+        return m_delegate;
+        }
+
+    /**
+     * Returns the number of tracked buffers that were garbage collected
+     * without being released.
+     *
+     * @return The number of leaks found.
+     */
+    public long getLeaks()
+        {
+        pollLeaks();
+        return m_leaks.get();
+        }
+
+    /**
+     * Returns the number of tracked buffers found held longer than the
+     * maximum hold time.
+     *
+     * @return The number of retained buffers found.
+     */
+    public long getRetained()
+        {
+        return m_retained.get();
+        }
+
+    /**
+     * Returns the number of tracked buffers that haven't been released yet.
+     *
+     * @return The number of tracked buffers.
+     */
+    public int getTracked()
+        {
+        return m_records.size();
+        }
+
+    /**
+     * Reports tracked buffers held longer than the maximum hold time, and
+     * tracked buffers collected without being released, now rather than
+     * on a later allocation.
+     */
+    public void check()
+        {
+        pollLeaks();
+        if (m_maxHoldNanos > 0)
+            {
+            checkRetention(System.nanoTime());
+            }
+        }
+
+    private void pollLeaks()
+        {
+        Record record;
+        while ((record = (Record) m_collected.poll()) != null)
+            {
+            if (m_records.remove(record) != null)
+                {
+                m_leaks.incrementAndGet();
+                LOG.error("Buffer of "+record.m_capacity+
+                    " bytes was garbage collected without being released",
+                    record.m_allocation);
+                }
+            }
+        }
+
+    private void checkRetention(final long now)
+        {
+        for (final Record record : m_records.keySet())
+            {
+            if (!record.m_reported && now - record.m_allocated > m_maxHoldNanos)
+                {
+                record.m_reported = true;
+                m_retained.incrementAndGet();
+                LOG.warn("Buffer of "+record.m_capacity+" bytes held for "+
+                    TimeUnit.NANOSECONDS.toMillis(now - record.m_allocated)+
+                    "ms", record.m_allocation);
+                }
+            }
+        }
+
+    /**
+     * What's known about a tracked buffer.
+     */
+    private final class Record extends WeakReference<TrackedByteBuffer>
+        {
+        private final Throwable m_allocation;
+        private final int m_capacity;
+        private final long m_allocated = System.nanoTime();
+        private volatile boolean m_reported;
+
+        private Record(final TrackedByteBuffer buf)
+            {
+            super(buf, m_collected);
+            m_allocation = new Throwable("Allocated by thread " +
+                Thread.currentThread().getName());
+            m_capacity = buf.capacity();
+            }
+        }
+
+    /**
+     * A buffer that reports its final release to the detector.  Everything
+     * else goes to the buffer from the delegate allocator.
+     */
+    private final class TrackedByteBuffer extends BaseByteBuffer
+        {
+        private final ByteBuffer m_buffer;
+
+        private final AtomicInteger m_refCount = new AtomicInteger(1);
+
+        private final Record m_record;
+
+        private TrackedByteBuffer(final ByteBuffer buffer)
+            {
+            m_buffer = buffer;
+            m_record = new Record(this);
+            m_records.put(m_record, Boolean.TRUE);
+            }
+
+        @Override
+        public java.nio.ByteBuffer buf()
+            {
+            return m_buffer.buf();
+            }
+
+        @Override
+        protected void capacity0(final int requestedCapacity)
+            {
+            m_buffer.capacity(requestedCapacity);
+            }
+
+        @Override
+        public void acquire()
+            {
+            m_buffer.acquire();
+            m_refCount.incrementAndGet();
+            }
+
+        @Override
+        public void release()
+            {
+            m_buffer.release();
+            if (m_refCount.decrementAndGet() == 0)
+                {
+                m_records.remove(m_record);
+                m_record.clear();
+                }
+            }
+
+        @Override
+        public boolean isPooled()
+            {
+            return m_buffer.isPooled();
+            }
+
+        @Override
+        public void setPooled(final boolean pooled)
+            {
+            m_buffer.setPooled(pooled);
+            }
+
+        @Override
+        public ByteBuffer duplicate()
+            {
+            return m_buffer.duplicate();
+            }
+
+        @Override
+        public ByteBuffer slice()
+            {
+            return m_buffer.slice();
+            }
+
+        @Override
+        public ByteBuffer asReadOnlyBuffer()
+            {
+            return m_buffer.asReadOnlyBuffer();
+            }
+
+        @Override
+        public byte[] array()
+            {
+            return m_buffer.array();
+            }
+
+        @Override
+        public int arrayOffset()
+            {
+            return m_buffer.arrayOffset();
+            }
+        }
+    }
@@ -0,0 +1,156 @@
+package org.littleshoot.util.mina;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoFilter;
+import org.littleshoot.mina.common.IoFilterAdapter;
+import org.littleshoot.mina.common.IoSession;
+
+/**
+ * Decides whether the buffers allocated for a session are heap or direct
+ * buffers.  This lets each server pick the kind of buffers its sessions use
+ * without changing the JVM-wide defaults in {@link ByteBuffer}.<p>
+ *
+ * A strategy is attached to a session as an attribute, either directly with
+ * {@link #apply(IoSession)} or for all of a server's sessions with the
+ * filter from {@link #newFilter()}.  The session's streams and channel then
+ * allocate their buffers with {@link #allocate(IoSession, int)}: the
+ * buffers written by {@link ByteBufferIoSessionOutputStream},
+ * {@link CoalescingIoSessionOutputStream} and {@link IoSessionByteChannel},
+ * and the buffer received data is copied into by
+ * {@link IoSessionInputStream}.  Buffers MINA allocates itself follow
+ * MINA's global setting.
+ */
+public final class BufferStrategy
+    {
+
+    /**
+     * Always allocates heap buffers.
+     */
+    public static final BufferStrategy HEAP = new BufferStrategy(-1);
+
+    /**
+     * Always allocates direct buffers.
+     */
+    public static final BufferStrategy DIRECT = new BufferStrategy(0);
+
+    private static final String KEY = BufferStrategy.class.getName();
+
+    /**
+     * The capacity at and above which to allocate direct buffers, or
+     * <tt>-1</tt> for never.
+     */
+    private final int m_directThreshold;
+
+    private BufferStrategy(final int directThreshold)
+        {
+        m_directThreshold = directThreshold;
+        }
+
+    /**
+     * Creates a strategy that allocates heap buffers for small capacities
+     * and direct buffers for large ones, such as those used for bulk socket
+     * IO.
+     *
+     * @param directThreshold The capacity at and above which to allocate
+     * direct buffers.
+     * @return The new strategy.
+     */
+    public static BufferStrategy hybrid(final int directThreshold)
+        {
+        if (directThreshold < 0)
+            {
+            throw new IllegalArgumentException("Bad threshold: "+
+                directThreshold);
+            }
+        return new BufferStrategy(directThreshold);
+        }
+
+    /**
+     * Returns the strategy attached to the specified session.
+     *
+     * @param session The session.
+     * @return The session's strategy, or <code>null</code> if it doesn't
+     * have one.
+     */
+    public static BufferStrategy of(final IoSession session)
+        {
+        return (BufferStrategy) session.getAttribute(KEY);
+        }
+
+    /**
+     * Allocates a buffer for the specified session, following the session's
+     * strategy.  Sessions without a strategy get MINA's default kind of
+     * buffer.
+     *
+     * @param session The session.
+     * @param capacity The capacity of the buffer.
+     * @return The new buffer.
+     */
+    public static ByteBuffer allocate(final IoSession session,
+        final int capacity)
+        {
+        final BufferStrategy strategy = of(session);
+        if (strategy == null)
+            {
+            return ByteBuffer.allocate(capacity);
+            }
+        return ByteBuffer.allocate(capacity, strategy.isDirect(capacity));
+        }
+
+    /**
+     * Attaches this strategy to the specified session.
+     *
+     * @param session The session.
+     */
+    public void apply(final IoSession session)
+        {
+        session.setAttribute(KEY, this);
+        }
+
+    /**
+     * Creates a filter that attaches this strategy to each session as it's
+     * created, before the session's handler sees it.
+     *
+     * @return The filter.
+     */
+    public IoFilter newFilter()
+        {
+        return new IoFilterAdapter()
+            {
+            @Override
+            public void sessionCreated(final NextFilter nextFilter,
+                final IoSession session) throws Exception
+                {
+                apply(session);
+                nextFilter.sessionCreated(session);
+                }
+            };
+        }
+
+    /**
+     * Returns whether or not to allocate a direct buffer of the specified
+     * capacity.
+     *
+     * @param capacity The capacity of the buffer.
+     * @return <code>true</code> for a direct buffer, <code>false</code> for
+     * a heap buffer.
+     */
+    public boolean isDirect(final int capacity)
+        {
+        return m_directThreshold >= 0 && capacity >= m_directThreshold;
+        }
+
+    @Override
+    public String toString()
+        {
+        if (m_directThreshold < 0)
+            {
+            return "BufferStrategy[heap]";
+            }
+        if (m_directThreshold == 0)
+            {
+            return "BufferStrategy[direct]";
+            }
+        return "BufferStrategy[hybrid: "+m_directThreshold+"]";
+        }
+    }
@@ -7,7 +7,9 @@ import org.littleshoot.mina.common.IoSession;
 import org.littleshoot.mina.handler.support.IoSessionOutputStream;
 
 /**
- * An {@link IoSessionOutputStream} for byte buffers.
+ * An {@link IoSessionOutputStream} for byte buffers.  Every write is sent to
+ * the session as it is -- see {@link CoalescingIoSessionOutputStream} for 
+ * combining small writes.
  */
 public final class ByteBufferIoSessionOutputStream 
     extends AbstractIoSessionOutputStream<ByteBuffer> 
@@ -24,17 +26,33 @@ public final class ByteBufferIoSessionOutputStream
         super(session);
         }
 
+    /**
+     * Writes the specified buffer to the session as it is.  MINA releases 
+     * the buffer once it's written.
+     * 
+     * @param buf The buffer to write.
+     * @throws IOException If the buffer could not be written.
+     */
+    @Override
+    public void write(final ByteBuffer buf) throws IOException
+        {
+        super.write(buf);
+        }
+
     @Override
     public void write(final byte[] b, final int off, 
         final int len) throws IOException
         {
-        write(ByteBuffer.wrap(b.clone(), off, len));
+        final ByteBuffer buf = BufferStrategy.allocate(m_ioSession, len);
+        buf.put(b, off, len);
+        buf.flip();
+        write(buf);
         }
 
     @Override
     public void write(final int b) throws IOException
         {
-        final ByteBuffer buf = ByteBuffer.allocate(1);
+        final ByteBuffer buf = BufferStrategy.allocate(m_ioSession, 1);
         buf.put((byte) b);
         buf.flip();
         write(buf);
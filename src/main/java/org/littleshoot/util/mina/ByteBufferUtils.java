@@ -1,12 +1,15 @@
 package org.littleshoot.util.mina;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.littleshoot.mina.common.ByteBuffer;
-import org.littleshoot.mina.common.SimpleByteBufferAllocator;
 
 /**
  * Utility class for manipulating <code>ByteBuffer</code>s.
@@ -19,12 +22,6 @@ public final class ByteBufferUtils
      */
     private static final Logger LOG = LoggerFactory.getLogger(ByteBufferUtils.class);
 
-    static
-        {
-        ByteBuffer.setUseDirectBuffers(false);
-        ByteBuffer.setAllocator(new SimpleByteBufferAllocator());
-        }
-        
     /**
      * Splits the specified <code>ByteBuffer</code> into smaller 
      * <code>ByteBuffer</code>s of the specified size.  The remaining bytes 
@@ -38,6 +35,7 @@ public final class ByteBufferUtils
      * @return A <code>Collection</code> of <code>ByteBuffer</code>s of the
      * specified size.  The final buffer in the <code>Collection</code> will
      * have a size > 0 and <= the chunk size.
+     * @see #splitToSlices(ByteBuffer, int)
      */
     public static Collection<ByteBuffer> split(final ByteBuffer buffer, 
         final int chunkSize)
@@ -60,6 +58,106 @@ public final class ByteBufferUtils
         return buffers;
         }
     
+    /**
+     * Splits the remaining bytes of the specified <code>ByteBuffer</code> 
+     * into slices of the specified size without copying them.  Each slice 
+     * shares its content with the buffer, so the buffer shouldn't be 
+     * modified while the slices are in use.  Each slice also holds a 
+     * reference to the buffer's memory, and should be released once it's 
+     * no longer needed -- writing it to a session does that -- so a pooling
+     * allocator can reuse the memory.  The position and limit of the 
+     * buffer are not changed.
+     * 
+     * @param buffer The <code>ByteBuffer</code> to split.
+     * @param chunkSize The size of the slices.
+     * @return The slices, in order.  The final slice will have a size > 0 
+     * and <= the chunk size unless the buffer has no remaining bytes, in 
+     * which case there are no slices.
+     */
+    public static List<ByteBuffer> splitToSlices(final ByteBuffer buffer, 
+        final int chunkSize)
+        {
+        if (chunkSize <= 0)
+            {
+            throw new IllegalArgumentException("Bad chunk size: "+chunkSize);
+            }
+        final int position = buffer.position();
+        final int limit = buffer.limit();
+        final List<ByteBuffer> slices = 
+            new ArrayList<ByteBuffer>((limit - position + chunkSize - 1) / 
+                chunkSize);
+        try
+            {
+            for (int start = position; start < limit; start += chunkSize)
+                {
+                buffer.limit(Math.min(limit, start + chunkSize));
+                buffer.position(start);
+                slices.add(buffer.slice());
+                }
+            }
+        finally
+            {
+            buffer.limit(limit);
+            buffer.position(position);
+            }
+        return slices;
+        }
+
+    /**
+     * Iterates over the remaining bytes of the specified 
+     * <code>ByteBuffer</code> in chunks of the specified size without 
+     * copying or allocating anything per chunk.  Every call to 
+     * {@link Iterator#next()} returns the same view of the buffer with its
+     * position and limit set to the next chunk, so each chunk must be 
+     * consumed before moving to the next one and must not be kept, written
+     * to a session or released.  The view holds no reference to the 
+     * buffer's memory, so the buffer must not be released until the 
+     * iteration is done.  The position and limit of the buffer are not 
+     * changed.
+     * 
+     * @param buffer The <code>ByteBuffer</code> to split.
+     * @param chunkSize The size of the chunks.
+     * @return An iterator over the chunks.
+     */
+    public static Iterator<ByteBuffer> chunks(final ByteBuffer buffer, 
+        final int chunkSize)
+        {
+        if (chunkSize <= 0)
+            {
+            throw new IllegalArgumentException("Bad chunk size: "+chunkSize);
+            }
+        final ByteBuffer view = ByteBuffer.wrap(buffer.buf().duplicate());
+        view.order(buffer.order());
+        final int limit = buffer.limit();
+        return new Iterator<ByteBuffer>()
+            {
+            private int m_next = buffer.position();
+
+            public boolean hasNext()
+                {
+                return m_next < limit;
+                }
+
+            public ByteBuffer next()
+                {
+                if (m_next >= limit)
+                    {
+                    throw new NoSuchElementException();
+                    }
+                final int end = Math.min(limit, m_next + chunkSize);
+                view.limit(end);
+                view.position(m_next);
+                m_next = end;
+                return view;
+                }
+
+            public void remove()
+                {
+                throw new UnsupportedOperationException();
+                }
+            };
+        }
+    
     private static ByteBuffer createBuffer(final ByteBuffer buffer)
         {
         final ByteBuffer data = ByteBuffer.allocate(
@@ -80,6 +178,7 @@ public final class ByteBufferUtils
      * to make into a single buffer.
      * @return A new <code>ByteBuffer</code> combining the remaining data of
      * the <code>Collection</code> of <code>ByteBuffer</code>s.
+     * @see CompositeByteBuffer
      */
     public static ByteBuffer combine(final Collection<ByteBuffer> buffers)
         {
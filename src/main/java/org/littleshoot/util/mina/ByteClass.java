@@ -0,0 +1,183 @@
+package org.littleshoot.util.mina;
+
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * An immutable set of byte values, such as the characters allowed in an
+ * HTTP token, backed by a lookup table covering all 256 values.  Testing a
+ * byte is a single table lookup, whatever the byte's sign.
+ *
+ * @see MinaCodecUtils#HTTP_TOKEN
+ */
+public final class ByteClass
+    {
+
+    private final boolean[] m_table;
+
+    private ByteClass(final boolean[] table)
+        {
+        m_table = table;
+        }
+
+    /**
+     * Creates a class of the specified characters.
+     *
+     * @param chars The characters.  Each must be below <tt>256</tt>.
+     * @return The class.
+     */
+    public static ByteClass of(final String chars)
+        {
+        final boolean[] table = new boolean[256];
+        for (int i = 0; i < chars.length(); i++)
+            {
+            final char c = chars.charAt(i);
+            if (c > 0xFF)
+                {
+                throw new IllegalArgumentException("Not a byte: "+c);
+                }
+            table[c] = true;
+            }
+        return new ByteClass(table);
+        }
+
+    /**
+     * Creates a class of the specified bytes.
+     *
+     * @param bytes The bytes.
+     * @return The class.
+     */
+    public static ByteClass of(final byte... bytes)
+        {
+        final boolean[] table = new boolean[256];
+        for (final byte b : bytes)
+            {
+            table[b & 0xFF] = true;
+            }
+        return new ByteClass(table);
+        }
+
+    /**
+     * Creates a class of a range of unsigned byte values.
+     *
+     * @param first The first value, inclusive.
+     * @param last The last value, inclusive.
+     * @return The class.
+     */
+    public static ByteClass range(final int first, final int last)
+        {
+        if (first < 0 || last > 0xFF || first > last)
+            {
+            throw new IllegalArgumentException("Bad range: "+first+"-"+last);
+            }
+        final boolean[] table = new boolean[256];
+        for (int i = first; i <= last; i++)
+            {
+            table[i] = true;
+            }
+        return new ByteClass(table);
+        }
+
+    /**
+     * Returns a class of the bytes in either this class or the specified
+     * class.
+     *
+     * @param other The other class.
+     * @return The union of the classes.
+     */
+    public ByteClass or(final ByteClass other)
+        {
+        final boolean[] table = new boolean[256];
+        for (int i = 0; i < table.length; i++)
+            {
+            table[i] = m_table[i] || other.m_table[i];
+            }
+        return new ByteClass(table);
+        }
+
+    /**
+     * Returns a class of the bytes in this class but not in the specified
+     * class.
+     *
+     * @param other The class to remove.
+     * @return The difference of the classes.
+     */
+    public ByteClass andNot(final ByteClass other)
+        {
+        final boolean[] table = new boolean[256];
+        for (int i = 0; i < table.length; i++)
+            {
+            table[i] = m_table[i] && !other.m_table[i];
+            }
+        return new ByteClass(table);
+        }
+
+    /**
+     * Returns a class of all bytes not in this class.
+     *
+     * @return The complement of this class.
+     */
+    public ByteClass not()
+        {
+        final boolean[] table = new boolean[256];
+        for (int i = 0; i < table.length; i++)
+            {
+            table[i] = !m_table[i];
+            }
+        return new ByteClass(table);
+        }
+
+    /**
+     * Returns whether the specified byte is in this class.
+     *
+     * @param b The byte.
+     * @return <code>true</code> if the byte is in this class.
+     */
+    public boolean contains(final byte b)
+        {
+        return m_table[b & 0xFF];
+        }
+
+    /**
+     * Returns the index of the first byte between the specified indexes
+     * that's in this class.
+     *
+     * @param buf The buffer to search.
+     * @param from The index to start at, inclusive.
+     * @param to The index to stop at, exclusive.
+     * @return The index of the byte, or <tt>-1</tt> if there's none.
+     */
+    public int indexOf(final ByteBuffer buf, final int from, final int to)
+        {
+        final boolean[] table = m_table;
+        for (int i = from; i < to; i++)
+            {
+            if (table[buf.get(i) & 0xFF])
+                {
+                return i;
+                }
+            }
+        return -1;
+        }
+
+    /**
+     * Returns the index of the first byte between the specified indexes
+     * that's not in this class.
+     *
+     * @param buf The buffer to search.
+     * @param from The index to start at, inclusive.
+     * @param to The index to stop at, exclusive.
+     * @return The index of the byte, or <tt>-1</tt> if there's none.
+     */
+    public int indexOfNot(final ByteBuffer buf, final int from, final int to)
+        {
+        final boolean[] table = m_table;
+        for (int i = from; i < to; i++)
+            {
+            if (!table[buf.get(i) & 0xFF])
+                {
+                return i;
+                }
+            }
+        return -1;
+        }
+    }
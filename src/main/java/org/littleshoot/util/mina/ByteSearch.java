@@ -0,0 +1,192 @@
+package org.littleshoot.util.mina;
+
+import java.nio.ByteOrder;
+
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Searches <code>ByteBuffer</code>s for bytes eight at a time.  Each step
+ * reads a <code>long</code> and uses the SIMD-within-a-register trick of
+ * XORing it with the byte repeated across the word, then flagging the
+ * zero bytes of the result.  The flagging is exact, so there are no false
+ * matches to filter out.  Only heap buffers are searched this way -- on
+ * direct buffers and other buffers without a backing array each
+ * <code>getLong</code> goes through bounds checks and possibly byte
+ * swapping, so they're searched a byte at a time instead.<p>
+ *
+ * None of the methods change the position or limit of the buffer.
+ */
+public final class ByteSearch
+    {
+
+    private static final long LOW_SEVEN_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private static final long ONES = 0x0101010101010101L;
+
+    /**
+     * Returns the index of the first occurrence of the specified byte
+     * between the specified indexes.
+     *
+     * @param buf The buffer to search.
+     * @param from The index to start at, inclusive.
+     * @param to The index to stop at, exclusive.
+     * @param b The byte to look for.
+     * @return The index of the byte, or <tt>-1</tt> if it's not there.
+     */
+    public static int indexOf(final ByteBuffer buf, final int from,
+        final int to, final byte b)
+        {
+        final boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+        final long pattern = repeat(b);
+        int i = from;
+        final int words = wordEnd(buf, from, to);
+        for (; i < words; i += 8)
+            {
+            final long found = zeroBytes(buf.getLong(i) ^ pattern);
+            if (found != 0)
+                {
+                return i + firstByte(found, bigEndian);
+                }
+            }
+        for (; i < to; i++)
+            {
+            if (buf.get(i) == b)
+                {
+                return i;
+                }
+            }
+        return -1;
+        }
+
+    /**
+     * Returns the index of the first occurrence of either of the specified
+     * bytes between the specified indexes.
+     *
+     * @param buf The buffer to search.
+     * @param from The index to start at, inclusive.
+     * @param to The index to stop at, exclusive.
+     * @param b1 The first byte to look for.
+     * @param b2 The second byte to look for.
+     * @return The index of the first of the bytes, or <tt>-1</tt> if
+     * neither is there.
+     */
+    public static int indexOfEither(final ByteBuffer buf, final int from,
+        final int to, final byte b1, final byte b2)
+        {
+        final boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+        final long pattern1 = repeat(b1);
+        final long pattern2 = repeat(b2);
+        int i = from;
+        final int words = wordEnd(buf, from, to);
+        for (; i < words; i += 8)
+            {
+            final long word = buf.getLong(i);
+            final long found =
+                zeroBytes(word ^ pattern1) | zeroBytes(word ^ pattern2);
+            if (found != 0)
+                {
+                return i + firstByte(found, bigEndian);
+                }
+            }
+        for (; i < to; i++)
+            {
+            final byte b = buf.get(i);
+            if (b == b1 || b == b2)
+                {
+                return i;
+                }
+            }
+        return -1;
+        }
+
+    /**
+     * Returns the index of the first byte between the specified indexes
+     * that's different from the specified byte.
+     *
+     * @param buf The buffer to search.
+     * @param from The index to start at, inclusive.
+     * @param to The index to stop at, exclusive.
+     * @param b The byte to skip over.
+     * @return The index of the first other byte, or <tt>-1</tt> if every
+     * byte in the range is the specified byte.
+     */
+    public static int indexOfNot(final ByteBuffer buf, final int from,
+        final int to, final byte b)
+        {
+        final boolean bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+        final long pattern = repeat(b);
+        int i = from;
+        final int words = wordEnd(buf, from, to);
+        for (; i < words; i += 8)
+            {
+            final long found = nonZeroBytes(buf.getLong(i) ^ pattern);
+            if (found != 0)
+                {
+                return i + firstByte(found, bigEndian);
+                }
+            }
+        for (; i < to; i++)
+            {
+            if (buf.get(i) != b)
+                {
+                return i;
+                }
+            }
+        return -1;
+        }
+
+    /**
+     * Returns the index up to which to search a word at a time.  That's
+     * none of the range unless the buffer is backed by an array.
+     */
+    private static int wordEnd(final ByteBuffer buf, final int from,
+        final int to)
+        {
+        if (!buf.buf().hasArray())
+            {
+            return from;
+            }
+        return to - ((to - from) & 7);
+        }
+
+    private static long repeat(final byte b)
+        {
+        return (b & 0xFFL) * ONES;
+        }
+
+    /**
+     * Sets the high bit of each byte of the result that's zero in the
+     * specified word, and clears every other bit.  Adding the low seven
+     * bits can't carry between bytes, unlike the shorter
+     * <code>(x - ONES) & ~x & HIGH_BITS</code> form.
+     */
+    private static long zeroBytes(final long word)
+        {
+        final long low = (word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS;
+        return ~(low | word | LOW_SEVEN_BITS);
+        }
+
+    /**
+     * Sets the high bit of each byte of the result that's non-zero in the
+     * specified word, and clears every other bit.
+     */
+    private static long nonZeroBytes(final long word)
+        {
+        final long low = (word & LOW_SEVEN_BITS) + LOW_SEVEN_BITS;
+        return (low | word) & HIGH_BITS;
+        }
+
+    /**
+     * Returns the offset in the buffer of the first flagged byte of a word.
+     */
+    private static int firstByte(final long flags, final boolean bigEndian)
+        {
+        if (bigEndian)
+            {
+            return Long.numberOfLeadingZeros(flags) >>> 3;
+            }
+        return Long.numberOfTrailingZeros(flags) >>> 3;
+        }
+    }
@@ -0,0 +1,364 @@
+package org.littleshoot.util.mina;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.common.WriteFuture;
+import org.littleshoot.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link OutputStream} for byte buffers that coalesces small writes into
+ * a single buffer before writing it to the session.  The buffer is written
+ * when it fills up, when the oldest buffered byte has waited longer than
+ * the maximum delay, or on {@link #flush()}.  Timed writes come from a
+ * single timer thread shared by all streams, which never waits on a stream
+ * another thread is writing to -- it tries again after the delay.<p>
+ *
+ * Two buffers are used in turn -- one collecting writes while the other
+ * is being written -- so buffers are reused rather than allocated for
+ * every write.  Both are released when the stream is closed.
+ */
+public final class CoalescingIoSessionOutputStream
+    extends AbstractIoSessionOutputStream<ByteBuffer>
+    {
+
+    /**
+     * The default number of bytes to collect before writing.
+     */
+    public static final int DEFAULT_THRESHOLD = 8 * 1024;
+
+    /**
+     * The default maximum time in milliseconds to hold buffered bytes.
+     */
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 20;
+
+    private static final ScheduledExecutorService FLUSH_TIMER =
+        Executors.newSingleThreadScheduledExecutor(
+            new DaemonThreadFactory("IoSession-Output-Flush-Timer"));
+
+    private final Logger m_log = LoggerFactory.getLogger(getClass());
+
+    /**
+     * Guards the buffers and the flush task.
+     */
+    private final Lock m_lock = new ReentrantLock();
+
+    private final int m_threshold;
+
+    private final long m_maxDelayMillis;
+
+    private ByteBuffer m_buffer;
+
+    /**
+     * The last buffer written and the future for that write.  The buffer is
+     * reused once the write completes.
+     */
+    private ByteBuffer m_spare;
+
+    private WriteFuture m_spareFuture;
+
+    private ScheduledFuture<?> m_flushTask;
+
+    private boolean m_closed;
+
+    private final Runnable m_timedFlush = new Runnable()
+        {
+        public void run()
+            {
+            timedFlush();
+            }
+        };
+
+    /**
+     * Creates a new stream with the default threshold and delay.
+     *
+     * @param session The {@link IoSession}.
+     */
+    public CoalescingIoSessionOutputStream(final IoSession session)
+        {
+        this(session, DEFAULT_THRESHOLD, DEFAULT_MAX_DELAY_MILLIS);
+        }
+
+    /**
+     * Creates a new stream.
+     *
+     * @param session The {@link IoSession}.
+     * @param threshold The number of bytes to collect before writing them
+     * to the session.
+     * @param maxDelayMillis The maximum time to hold buffered bytes before
+     * writing them, or <tt>0</tt> to only write on a full buffer or
+     * {@link #flush()}.
+     */
+    public CoalescingIoSessionOutputStream(final IoSession session,
+        final int threshold, final long maxDelayMillis)
+        {
+        super(session);
+        if (threshold <= 0)
+            {
+            throw new IllegalArgumentException("Bad threshold: "+threshold);
+            }
+        m_threshold = threshold;
+        m_maxDelayMillis = maxDelayMillis;
+        }
+
+    @Override
+    public void write(final byte[] b, final int off,
+        final int len) throws IOException
+        {
+        m_lock.lock();
+        try
+            {
+            int offset = off;
+            int remaining = len;
+            while (remaining > 0)
+                {
+                final ByteBuffer buf = buffer();
+                final int n = Math.min(remaining, buf.remaining());
+                buf.put(b, offset, n);
+                offset += n;
+                remaining -= n;
+                if (!buf.hasRemaining())
+                    {
+                    flushBuffer();
+                    }
+                }
+            scheduleFlush();
+            }
+        finally
+            {
+            m_lock.unlock();
+            }
+        }
+
+    @Override
+    public void write(final int b) throws IOException
+        {
+        m_lock.lock();
+        try
+            {
+            final ByteBuffer buf = buffer();
+            buf.put((byte) b);
+            if (!buf.hasRemaining())
+                {
+                flushBuffer();
+                }
+            else
+                {
+                scheduleFlush();
+                }
+            }
+        finally
+            {
+            m_lock.unlock();
+            }
+        }
+
+    @Override
+    public void flush() throws IOException
+        {
+        m_lock.lock();
+        try
+            {
+            flushBuffer();
+            super.flush();
+            }
+        finally
+            {
+            m_lock.unlock();
+            }
+        }
+
+    @Override
+    public void close() throws IOException
+        {
+        try
+            {
+            super.close();
+            }
+        finally
+            {
+            m_lock.lock();
+            try
+                {
+                m_closed = true;
+                cancelFlush();
+                releaseBuffers();
+                }
+            finally
+                {
+                m_lock.unlock();
+                }
+            }
+        }
+
+    private ByteBuffer buffer() throws IOException
+        {
+        if (m_closed)
+            {
+            throw new IOException("The stream has been closed.");
+            }
+        if (m_buffer != null)
+            {
+            return m_buffer;
+            }
+        if (m_spare != null && 
+            (m_spareFuture == null || m_spareFuture.isReady()))
+            {
+            m_buffer = m_spare;
+            m_buffer.clear();
+            }
+        else
+            {
+            if (m_spare != null)
+                {
+                m_log.debug("Last write still pending -- not reusing buffer");
+                m_spare.release();
+                }
+            m_buffer = BufferStrategy.allocate(m_ioSession, m_threshold);
+            }
+        m_spare = null;
+        m_spareFuture = null;
+        return m_buffer;
+        }
+
+    /**
+     * Releases both buffers once the stream is closed.  The final flush has
+     * waited for the last write to complete, and if it failed part way MINA
+     * still holds a reference of its own to a buffer it's writing.
+     */
+    private void releaseBuffers()
+        {
+        if (m_buffer != null)
+            {
+            m_buffer.release();
+            m_buffer = null;
+            }
+        if (m_spare != null)
+            {
+            m_spare.release();
+            m_spare = null;
+            m_spareFuture = null;
+            }
+        }
+
+    private void flushBuffer() throws IOException
+        {
+        final ByteBuffer buf = takeBuffer();
+        if (buf == null)
+            {
+            return;
+            }
+        try
+            {
+            write(buf);
+            }
+        finally
+            {
+            recycle(buf);
+            }
+        }
+
+    /**
+     * Removes the buffer of pending bytes, ready for writing.
+     *
+     * @return The buffer, or <code>null</code> if there's nothing to write.
+     */
+    private ByteBuffer takeBuffer()
+        {
+        cancelFlush();
+        if (m_buffer == null || m_buffer.position() == 0)
+            {
+            return null;
+            }
+        final ByteBuffer buf = m_buffer;
+        m_buffer = null;
+        buf.flip();
+
+        // MINA releases buffers once they're written, so hold on to it.
+        buf.acquire();
+        return buf;
+        }
+
+    private void recycle(final ByteBuffer buf)
+        {
+        if (m_spare != null)
+            {
+            m_spare.release();
+            }
+        m_spare = buf;
+        m_spareFuture = m_lastWriteFuture;
+        }
+
+    private void scheduleFlush()
+        {
+        if (m_maxDelayMillis <= 0 || m_flushTask != null || m_buffer == null ||
+            m_buffer.position() == 0)
+            {
+            return;
+            }
+        m_flushTask = FLUSH_TIMER.schedule(m_timedFlush, m_maxDelayMillis,
+            TimeUnit.MILLISECONDS);
+        }
+
+    private void cancelFlush()
+        {
+        if (m_flushTask != null)
+            {
+            m_flushTask.cancel(false);
+            m_flushTask = null;
+            }
+        }
+
+    /**
+     * Writes pending bytes from the timer thread.  This doesn't wait for the
+     * write to complete, or for the lock if a writer holds it, since the 
+     * timer is shared by all streams -- a writer blocked on a stalled 
+     * session would otherwise hold up timed flushes for every other stream.
+     * The flush is tried again after the maximum delay instead.
+     */
+    private void timedFlush()
+        {
+        if (!m_lock.tryLock())
+            {
+            FLUSH_TIMER.schedule(m_timedFlush, m_maxDelayMillis,
+                TimeUnit.MILLISECONDS);
+            return;
+            }
+        try
+            {
+            // This may be a retry rather than the scheduled flush, so 
+            // taking the buffer cancels any flush still scheduled.
+            final ByteBuffer buf = takeBuffer();
+            if (buf == null)
+                {
+                return;
+                }
+            try
+                {
+                writeWithoutWaiting(buf);
+                }
+            catch (final IOException e)
+                {
+                m_log.debug("Session closed -- dropping buffered bytes");
+                }
+            finally
+                {
+                recycle(buf);
+                }
+            }
+        finally
+            {
+            m_lock.unlock();
+            }
+        }
+    }
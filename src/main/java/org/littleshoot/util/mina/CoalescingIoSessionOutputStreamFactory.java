@@ -0,0 +1,48 @@
+package org.littleshoot.util.mina;
+
+import java.io.OutputStream;
+
+import org.littleshoot.mina.common.IoSession;
+
+/**
+ * Factory for {@link CoalescingIoSessionOutputStream}s, for example for use
+ * with {@link SocketIoHandler}.
+ */
+public class CoalescingIoSessionOutputStreamFactory 
+    implements IoSessionOutputStreamFactory
+    {
+
+    private final int m_threshold;
+    private final long m_maxDelayMillis;
+
+    /**
+     * Creates a new factory for streams with the default threshold and 
+     * delay.
+     */
+    public CoalescingIoSessionOutputStreamFactory()
+        {
+        this(CoalescingIoSessionOutputStream.DEFAULT_THRESHOLD, 
+            CoalescingIoSessionOutputStream.DEFAULT_MAX_DELAY_MILLIS);
+        }
+
+    /**
+     * Creates a new factory.
+     * 
+     * @param threshold The number of bytes each stream collects before 
+     * writing them to its session.
+     * @param maxDelayMillis The maximum time each stream holds buffered bytes
+     * before writing them, or <tt>0</tt> for no limit.
+     */
+    public CoalescingIoSessionOutputStreamFactory(final int threshold, 
+        final long maxDelayMillis)
+        {
+        m_threshold = threshold;
+        m_maxDelayMillis = maxDelayMillis;
+        }
+
+    public OutputStream newStream(final IoSession session)
+        {
+        return new CoalescingIoSessionOutputStream(session, m_threshold, 
+            m_maxDelayMillis);
+        }
+    }
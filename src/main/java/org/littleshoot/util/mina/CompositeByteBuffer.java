@@ -0,0 +1,489 @@
+package org.littleshoot.util.mina;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.common.WriteFuture;
+
+/**
+ * A read-only view of several <code>ByteBuffer</code>s as a single
+ * sequence of bytes, without copying them into one buffer the way
+ * {@link ByteBufferUtils#combine(Collection)} does.<p>
+ *
+ * The composite covers the remaining bytes of each fragment when it was
+ * added, and has a position and limit of its own like a
+ * <code>ByteBuffer</code>.  The fragments share their content with the
+ * buffers they were added from, so those buffers shouldn't be modified
+ * while the composite is in use.  Each fragment is a slice that holds a
+ * reference to its buffer's memory, so a pooling allocator can't reuse that
+ * memory until the composite is {@link #release() released}.  Instances are
+ * not thread safe.
+ */
+public final class CompositeByteBuffer
+    {
+
+    private final List<ByteBuffer> m_fragments;
+
+    /**
+     * The index of the first byte of each fragment.  Has one more entry
+     * than there are fragments, holding the total length.
+     */
+    private int[] m_offsets;
+
+    private int m_position;
+
+    private int m_limit;
+
+    /**
+     * The fragment holding the byte at the current position, for fast
+     * relative reads.
+     */
+    private int m_fragment;
+
+    /**
+     * Creates a new empty composite.
+     */
+    public CompositeByteBuffer()
+        {
+        m_fragments = new ArrayList<ByteBuffer>();
+        m_offsets = new int[8];
+        }
+
+    /**
+     * Creates a new composite of the remaining bytes of the specified
+     * buffers.
+     *
+     * @param buffers The buffers, in order.
+     */
+    public CompositeByteBuffer(final Collection<ByteBuffer> buffers)
+        {
+        m_fragments = new ArrayList<ByteBuffer>(buffers.size());
+        m_offsets = new int[buffers.size() + 1];
+        for (final ByteBuffer buf : buffers)
+            {
+            add(buf);
+            }
+        }
+
+    /**
+     * Appends the remaining bytes of the specified buffer.  This doesn't
+     * change the buffer's position.  The limit of the composite moves to
+     * the new end if it was at the old end.  The composite takes a
+     * reference of its own, so the caller may release the buffer.
+     *
+     * @param buffer The buffer to add.
+     * @return This composite.
+     */
+    public CompositeByteBuffer add(final ByteBuffer buffer)
+        {
+        final int length = buffer.remaining();
+        if (length == 0)
+            {
+            return this;
+            }
+        final int end = end();
+        if (m_fragments.size() + 1 >= m_offsets.length)
+            {
+            m_offsets = Arrays.copyOf(m_offsets, m_offsets.length * 2);
+            }
+        m_fragments.add(buffer.slice());
+        m_offsets[m_fragments.size()] = end + length;
+        if (m_limit == end)
+            {
+            m_limit = end + length;
+            }
+        return this;
+        }
+
+    /**
+     * Returns the number of fragments.
+     *
+     * @return The number of fragments.
+     */
+    public int fragments()
+        {
+        return m_fragments.size();
+        }
+
+    public int position()
+        {
+        return m_position;
+        }
+
+    public CompositeByteBuffer position(final int position)
+        {
+        if (position < 0 || position > m_limit)
+            {
+            throw new IllegalArgumentException("Bad position: "+position);
+            }
+        m_position = position;
+        m_fragment = fragmentAt(position);
+        return this;
+        }
+
+    public int limit()
+        {
+        return m_limit;
+        }
+
+    public CompositeByteBuffer limit(final int limit)
+        {
+        if (limit < 0 || limit > end())
+            {
+            throw new IllegalArgumentException("Bad limit: "+limit);
+            }
+        m_limit = limit;
+        if (m_position > limit)
+            {
+            position(limit);
+            }
+        return this;
+        }
+
+    public int remaining()
+        {
+        return m_limit - m_position;
+        }
+
+    public boolean hasRemaining()
+        {
+        return m_position < m_limit;
+        }
+
+    /**
+     * Reads the byte at the current position and increments the position.
+     *
+     * @return The byte.
+     */
+    public byte get()
+        {
+        if (m_position >= m_limit)
+            {
+            throw new BufferUnderflowException();
+            }
+        while (m_position >= m_offsets[m_fragment + 1])
+            {
+            m_fragment++;
+            }
+        final byte b = m_fragments.get(m_fragment).get(
+            m_position - m_offsets[m_fragment]);
+        m_position++;
+        return b;
+        }
+
+    /**
+     * Reads the byte at the specified index.
+     *
+     * @param index The index.
+     * @return The byte.
+     */
+    public byte get(final int index)
+        {
+        checkIndex(index, 1);
+        final int fragment = fragmentAt(index);
+        return m_fragments.get(fragment).get(index - m_offsets[fragment]);
+        }
+
+    /**
+     * Reads bytes from the current position into the specified array and
+     * increments the position.
+     *
+     * @param dst The array to read into.
+     * @param offset The offset in the array.
+     * @param length The number of bytes to read.
+     * @return This composite.
+     */
+    public CompositeByteBuffer get(final byte[] dst, final int offset,
+        final int length)
+        {
+        if (length > remaining())
+            {
+            throw new BufferUnderflowException();
+            }
+        int copied = 0;
+        while (copied < length)
+            {
+            while (m_position >= m_offsets[m_fragment + 1])
+                {
+                m_fragment++;
+                }
+            final java.nio.ByteBuffer fragment =
+                m_fragments.get(m_fragment).buf().duplicate();
+            fragment.position(m_position - m_offsets[m_fragment]);
+            final int n = Math.min(length - copied, fragment.remaining());
+            fragment.get(dst, offset + copied, n);
+            copied += n;
+            m_position += n;
+            }
+        return this;
+        }
+
+    /**
+     * Returns the index of the first occurrence of the specified byte
+     * between the position and the limit.
+     *
+     * @param b The byte to look for.
+     * @return The index of the byte, or <tt>-1</tt> if it's not there.
+     */
+    public int indexOf(final byte b)
+        {
+        int fragment = m_fragment;
+        int index = m_position;
+        while (index < m_limit)
+            {
+            while (index >= m_offsets[fragment + 1])
+                {
+                fragment++;
+                }
+            final ByteBuffer buf = m_fragments.get(fragment);
+            final int base = m_offsets[fragment];
+            final int end = Math.min(m_limit, m_offsets[fragment + 1]);
+            for (; index < end; index++)
+                {
+                if (buf.get(index - base) == b)
+                    {
+                    return index;
+                    }
+                }
+            }
+        return -1;
+        }
+
+    /**
+     * Returns the index of the first occurrence of the specified bytes
+     * between the position and the limit.  Matches may span fragments.
+     *
+     * @param pattern The bytes to look for.
+     * @return The index of the first byte of the match, or <tt>-1</tt> if
+     * there's no match.
+     */
+    public int indexOf(final byte[] pattern)
+        {
+        if (pattern.length == 0)
+            {
+            return m_position;
+            }
+        final int savedPosition = m_position;
+        final int savedFragment = m_fragment;
+        try
+            {
+            while (m_limit - m_position >= pattern.length)
+                {
+                final int candidate = indexOf(pattern[0]);
+                if (candidate == -1 || m_limit - candidate < pattern.length)
+                    {
+                    return -1;
+                    }
+                if (matches(candidate, pattern))
+                    {
+                    return candidate;
+                    }
+                position(candidate + 1);
+                }
+            return -1;
+            }
+        finally
+            {
+            m_position = savedPosition;
+            m_fragment = savedFragment;
+            }
+        }
+
+    private boolean matches(final int index, final byte[] pattern)
+        {
+        for (int i = 1; i < pattern.length; i++)
+            {
+            if (get(index + i) != pattern[i])
+                {
+                return false;
+                }
+            }
+        return true;
+        }
+
+    /**
+     * Returns a composite of the specified range of this one, sharing its
+     * fragments' content.  The new composite holds references of its own
+     * to the fragments' memory, and must be {@link #release() released}
+     * separately.
+     *
+     * @param index The index of the first byte of the range.
+     * @param length The length of the range.
+     * @return The new composite.
+     */
+    public CompositeByteBuffer slice(final int index, final int length)
+        {
+        checkIndex(index, length);
+        final CompositeByteBuffer slice = new CompositeByteBuffer();
+        final int end = index + length;
+        int fragment = fragmentAt(index);
+        int start = index;
+        while (start < end)
+            {
+            final int base = m_offsets[fragment];
+            final ByteBuffer view = m_fragments.get(fragment).duplicate();
+            view.limit(Math.min(end, m_offsets[fragment + 1]) - base);
+            view.position(start - base);
+            slice.add(view);
+            view.release();
+            start = m_offsets[fragment + 1];
+            fragment++;
+            }
+        return slice;
+        }
+
+    /**
+     * Writes the bytes between the position and the limit to the specified
+     * channel with gathering writes, moving the position past the bytes
+     * written.
+     *
+     * @param channel The channel to write to.
+     * @return The number of bytes written.
+     * @throws IOException If any IO error occurs.
+     */
+    public long writeTo(final GatheringByteChannel channel) throws IOException
+        {
+        final java.nio.ByteBuffer[] bufs = toNioBuffers();
+        final long written = channel.write(bufs);
+        position(m_position + (int) written);
+        return written;
+        }
+
+    /**
+     * Writes the bytes between the position and the limit to the specified
+     * session, one write per fragment, and moves the position to the limit.
+     * MINA writes them out in order without combining them.
+     *
+     * @param session The session to write to.
+     * @return The future for the last write, or <code>null</code> if there
+     * was nothing to write.
+     */
+    public WriteFuture write(final IoSession session)
+        {
+        WriteFuture future = null;
+        while (hasRemaining())
+            {
+            while (m_position >= m_offsets[m_fragment + 1])
+                {
+                m_fragment++;
+                }
+            final int base = m_offsets[m_fragment];
+            final ByteBuffer view = m_fragments.get(m_fragment).duplicate();
+            view.limit(Math.min(m_limit, m_offsets[m_fragment + 1]) - base);
+            view.position(m_position - base);
+            m_position += view.remaining();
+            future = session.write(view);
+            }
+        return future;
+        }
+
+    /**
+     * Copies the bytes between the position and the limit into a single new
+     * buffer, without changing the position.
+     *
+     * @return The new buffer.
+     */
+    public ByteBuffer toByteBuffer()
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(remaining());
+        for (final java.nio.ByteBuffer nio : toNioBuffers())
+            {
+            buf.put(nio);
+            }
+        buf.flip();
+        return buf;
+        }
+
+    /**
+     * Releases the references to all fragments.  The composite must not be
+     * used afterwards.
+     */
+    public void release()
+        {
+        for (final ByteBuffer fragment : m_fragments)
+            {
+            fragment.release();
+            }
+        m_fragments.clear();
+        m_position = 0;
+        m_limit = 0;
+        m_fragment = 0;
+        }
+
+    private java.nio.ByteBuffer[] toNioBuffers()
+        {
+        if (!hasRemaining())
+            {
+            return new java.nio.ByteBuffer[0];
+            }
+        final int first = fragmentAt(m_position);
+        final int last = fragmentAt(m_limit - 1);
+        final java.nio.ByteBuffer[] bufs =
+            new java.nio.ByteBuffer[last - first + 1];
+        for (int i = first; i <= last; i++)
+            {
+            final int base = m_offsets[i];
+            final java.nio.ByteBuffer nio = m_fragments.get(i).buf().duplicate();
+            nio.limit(Math.min(m_limit, m_offsets[i + 1]) - base);
+            nio.position(Math.max(m_position, base) - base);
+            bufs[i - first] = nio;
+            }
+        return bufs;
+        }
+
+    private int end()
+        {
+        return m_offsets[m_fragments.size()];
+        }
+
+    /**
+     * Returns the index of the fragment holding the specified byte, or the
+     * last fragment for the end of the composite.
+     */
+    private int fragmentAt(final int index)
+        {
+        final int fragments = m_fragments.size();
+        if (fragments == 0)
+            {
+            return 0;
+            }
+        int low = 0;
+        int high = fragments - 1;
+        while (low < high)
+            {
+            final int mid = (low + high + 1) >>> 1;
+            if (m_offsets[mid] <= index)
+                {
+                low = mid;
+                }
+            else
+                {
+                high = mid - 1;
+                }
+            }
+        return low;
+        }
+
+    private void checkIndex(final int index, final int length)
+        {
+        if (index < 0 || length < 0 || index + length > m_limit)
+            {
+            throw new IndexOutOfBoundsException("Bad range: "+index+
+                " length: "+length);
+            }
+        }
+
+    @Override
+    public String toString()
+        {
+        return getClass().getSimpleName()+"[pos="+m_position+" lim="+
+            m_limit+" fragments="+m_fragments.size()+"]";
+        }
+    }
@@ -16,14 +16,23 @@
 package org.littleshoot.util.mina;
 
 import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderException;
 import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
 
 
 /**
 * A decoder which writes all read bytes in to a known <code>Bytes</code>
-* context until a <code>CRLF</code> has been encountered.
+* context until a <code>CRLF</code> has been encountered.  A maximum line
+* length can be set to bound the memory a line takes -- see
+* {@link #lineTooLong(ByteBuffer, ProtocolDecoderOutput)}.<p>
+*
+* A line that spans reads is kept as views of the inputs it came in, which
+* are acquired until the line is complete, so an input must not be reused,
+* compacted or modified after it's decoded.  Call {@link #release()} if the
+* state is abandoned part way through a line.
 */
-public abstract class ConsumeToCrlfDecodingState implements DecodingState 
+public abstract class ConsumeToCrlfDecodingState
+    implements ReleasableDecodingState
     {
 
   /**
@@ -36,9 +45,35 @@ public abstract class ConsumeToCrlfDecodingState implements DecodingState
      */
     private static final byte LF = 10;
 
+    private final int m_maxLineLength;
+
     private boolean m_lastIsCr;
 
-    private ByteBuffer m_buffer;
+    private final SegmentList m_segments = new SegmentList();
+
+    /**
+     * Creates a new state with no limit on the length of lines.
+     */
+    protected ConsumeToCrlfDecodingState()
+        {
+        this(0);
+        }
+
+    /**
+     * Creates a new state.
+     * 
+     * @param maxLineLength The maximum number of bytes in a line, not 
+     * counting the <code>CRLF</code>, or <tt>0</tt> for no limit.
+     */
+    protected ConsumeToCrlfDecodingState(final int maxLineLength)
+        {
+        if (maxLineLength < 0)
+            {
+            throw new IllegalArgumentException("Bad max line length: "+
+                maxLineLength);
+            }
+        m_maxLineLength = maxLineLength;
+        }
 
     public DecodingState decode(final ByteBuffer in, 
         final ProtocolDecoderOutput out) throws Exception
@@ -47,43 +82,63 @@ public abstract class ConsumeToCrlfDecodingState implements DecodingState
         final int limit = in.limit();
         int terminatorPos = -1;
 
-        for (int i = beginPos; i < limit; i++)
+        if (m_lastIsCr && beginPos < limit && in.get(beginPos) != LF)
             {
-            byte b = in.get(i);
-            if (b == CR)
+            // The CR held back from the last read wasn't part of a CRLF.
+            m_lastIsCr = false;
+            final DecodingState next = appendCr(out);
+            if (next != this)
                 {
-                m_lastIsCr = true;
+                return next;
                 }
-            else
+            }
+
+        // Look for LFs rather than CRs, since there's usually just one per
+        // line, and check for the CR before each one.
+        int i = beginPos;
+        while (i < limit)
+            {
+            final int lf = ByteSearch.indexOf(in, i, limit, LF);
+            if (lf < 0)
                 {
-                if (b == LF && m_lastIsCr)
-                    {
-                    terminatorPos = i;
-                    break;
-                    }
-                m_lastIsCr = false;
+                break;
                 }
+            if (lf == beginPos ? m_lastIsCr : in.get(lf - 1) == CR)
+                {
+                terminatorPos = lf;
+                break;
+                }
+            i = lf + 1;
             }
 
+        final boolean endsWithCr = limit > beginPos && in.get(limit - 1) == CR;
         if (terminatorPos >= 0)
             {
             ByteBuffer product;
 
             int endPos = terminatorPos - 1;
 
-            if (beginPos < endPos)
+            if (beginPos < endPos && tooLong(endPos - beginPos))
+                {
+                m_lastIsCr = false;
+                final DecodingState next = append(in, endPos, out);
+                if (next != this)
+                    {
+                    return next;
+                    }
+                product = m_segments.take(null);
+                }
+            else if (beginPos < endPos)
                 {
                 in.limit(endPos);
 
-                if (m_buffer == null)
+                if (m_segments.isEmpty())
                     {
                     product = in.slice();
                     }
                 else
                     {
-                    m_buffer.put(in);
-                    product = m_buffer.flip();
-                    m_buffer = null;
+                    product = m_segments.take(in);
                     }
 
                 in.limit(limit);
@@ -91,38 +146,159 @@ public abstract class ConsumeToCrlfDecodingState implements DecodingState
             else
                 {
                 // When input contained only CR or LF rather than actual data...
-                if (m_buffer == null)
+                if (m_segments.isEmpty())
                     {
                     product = ByteBuffer.allocate(1);
                     product.limit(0);
                     }
                 else
                     {
-                    product = m_buffer.flip();
-                    m_buffer = null;
+                    product = m_segments.take(null);
                     }
                 }
+            m_lastIsCr = false;
             in.position(terminatorPos + 1);
             return finishDecode(product, out);
             }
         else
             {
             in.position(beginPos);
-            if (m_buffer == null)
+
+            // A CR at the end is held back until we know whether an LF 
+            // follows it.
+            final DecodingState next = 
+                append(in, endsWithCr ? limit - 1 : limit, out);
+            if (next != this)
                 {
-                m_buffer = ByteBuffer.allocate(in.remaining());
-                m_buffer.setAutoExpand(true);
+                m_lastIsCr = false;
+                return next;
                 }
-
-            m_buffer.put(in);
-            if (m_lastIsCr)
+            in.position(limit);
+            if (limit > beginPos)
                 {
-                m_buffer.position(m_buffer.position() - 1);
+                m_lastIsCr = endsWithCr;
                 }
             return this;
             }
         }
 
+    /**
+     * Returns whether adding the specified number of bytes to the line 
+     * would take it over the maximum length.
+     */
+    private boolean tooLong(final int length)
+        {
+        return m_maxLineLength > 0 && buffered() + length > m_maxLineLength;
+        }
+
+    /**
+     * Moves bytes from the input up to the specified index into the line,
+     * handing the bytes collected so far to 
+     * {@link #lineTooLong(ByteBuffer, ProtocolDecoderOutput)} whenever it 
+     * reach the maximum line length and there are more bytes to add.
+     * 
+     * @return This state to carry on, or the state to switch to if 
+     * handling a long line returned a different one.
+     */
+    private DecodingState append(final ByteBuffer in, final int end,
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        final int limit = in.limit();
+        while (in.position() < end)
+            {
+            if (isFull())
+                {
+                final DecodingState next = overflow(out);
+                if (next != this)
+                    {
+                    return next;
+                    }
+                }
+            int length = end - in.position();
+            if (m_maxLineLength > 0)
+                {
+                length = Math.min(length, m_maxLineLength - buffered());
+                }
+            in.limit(in.position() + length);
+            m_segments.add(in);
+            in.limit(limit);
+            }
+        return this;
+        }
+
+    private DecodingState appendCr(final ProtocolDecoderOutput out) 
+        throws Exception
+        {
+        if (isFull())
+            {
+            final DecodingState next = overflow(out);
+            if (next != this)
+                {
+                return next;
+                }
+            }
+        m_segments.add(CR);
+        return this;
+        }
+
+    private boolean isFull()
+        {
+        return m_maxLineLength > 0 && buffered() >= m_maxLineLength;
+        }
+
+    private int buffered()
+        {
+        return m_segments.length();
+        }
+
+    private DecodingState overflow(final ProtocolDecoderOutput out)
+        throws Exception
+        {
+        return lineTooLong(m_segments.take(null), out);
+        }
+
+    /**
+     * Called with the first bytes of a line once it's longer than the 
+     * maximum line length, and again with each further chunk of that many
+     * bytes.  The rest of the line is passed to 
+     * {@link #finishDecode(ByteBuffer, ProtocolDecoderOutput)} as usual once
+     * the <code>CRLF</code> arrives.<p>
+     * 
+     * By default this throws a {@link ProtocolDecoderException}.  Subclasses
+     * can override it to stream long lines instead.
+     * 
+     * @param chunk The next chunk of the line.
+     * @param out The output to write to.
+     * @return This state to carry on reading the line, or another state to
+     * switch to, which gets the unread part of the input.
+     * @throws Exception If any error occurs.
+     */
+    protected DecodingState lineTooLong(final ByteBuffer chunk,
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        throw new ProtocolDecoderException("Line longer than "+
+            m_maxLineLength+" bytes");
+        }
+
+    /**
+     * Releases the inputs held for a partly read line and discards it.
+     */
+    public void release()
+        {
+        m_segments.release();
+        m_lastIsCr = false;
+        }
+
+    /**
+     * Called with each complete line.
+     * 
+     * @param product The line, without the <code>CRLF</code>.  A line read
+     * in one piece is a slice of the input, holding a reference to its
+     * memory, so it should be released once it's no longer needed.
+     * @param out The output to write to.
+     * @return The next state.
+     * @throws Exception If any error occurs.
+     */
     protected abstract DecodingState finishDecode(ByteBuffer product,
             ProtocolDecoderOutput out) throws Exception;
     }
@@ -0,0 +1,215 @@
+package org.littleshoot.util.mina;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Consumes until a sequence of bytes is reached, such as the
+ * <code>CRLF CRLF</code> ending a block of headers or a MIME boundary.
+ * Each buffer is searched with the Boyer-Moore-Horspool algorithm, and
+ * delimiters split across buffers are found by checking only the last few
+ * bytes of earlier data rather than searching it again.
+ *
+ * The delimiter is skipped.<p>
+ *
+ * Data that spans reads is kept as views of the inputs until the delimiter
+ * arrives -- each input is acquired rather than copied, so it must not be
+ * reused, compacted or modified once it's decoded.  Call 
+ * {@link #release()} if the state is abandoned before the delimiter.
+ */
+public abstract class ConsumeToDelimiterDecodingState
+    implements ReleasableDecodingState
+    {
+
+    private final byte[] m_delimiter;
+
+    /**
+     * How far the search can move when the last byte it compared has a
+     * given value.
+     */
+    private final int[] m_shifts = new int[256];
+
+    private final SegmentList m_segments = new SegmentList();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param delimiter The delimiter.
+     */
+    protected ConsumeToDelimiterDecodingState(final byte[] delimiter)
+        {
+        if (delimiter.length == 0)
+            {
+            throw new IllegalArgumentException("Empty delimiter");
+            }
+        m_delimiter = delimiter.clone();
+        final int last = delimiter.length - 1;
+        for (int i = 0; i < m_shifts.length; i++)
+            {
+            m_shifts[i] = delimiter.length;
+            }
+        for (int i = 0; i < last; i++)
+            {
+            m_shifts[delimiter[i] & 0xFF] = last - i;
+            }
+        }
+
+    public DecodingState decode(final ByteBuffer in,
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        final int beginPos = in.position();
+        final int limit = in.limit();
+
+        if (!m_segments.isEmpty())
+            {
+            final int split = findSplitDelimiter(in);
+            if (split >= 0)
+                {
+                // The delimiter started in earlier data.
+                final ByteBuffer product = m_segments.take(null);
+                product.limit(product.limit() - split);
+                in.position(beginPos + m_delimiter.length - split);
+                return finishDecode(product, out);
+                }
+            }
+
+        final int delimiterPos = indexOf(in, beginPos, limit);
+        if (delimiterPos >= 0)
+            {
+            final ByteBuffer product;
+            if (beginPos < delimiterPos)
+                {
+                in.limit(delimiterPos);
+                if (m_segments.isEmpty())
+                    {
+                    product = in.slice();
+                    }
+                else
+                    {
+                    product = m_segments.take(in);
+                    }
+                in.limit(limit);
+                }
+            else
+                {
+                // When input contained only the delimiter rather than
+                // actual data...
+                if (m_segments.isEmpty())
+                    {
+                    product = ByteBuffer.allocate(1);
+                    product.limit(0);
+                    }
+                else
+                    {
+                    product = m_segments.take(null);
+                    }
+                }
+            in.position(delimiterPos + m_delimiter.length);
+            return finishDecode(product, out);
+            }
+        else
+            {
+            m_segments.add(in);
+            return this;
+            }
+        }
+
+    /**
+     * Looks for a delimiter that starts in the buffered data and ends in
+     * the specified input.  Only the last <code>length - 1</code> buffered
+     * bytes can be part of one.
+     *
+     * @return The number of delimiter bytes at the end of the buffered data,
+     * or <tt>-1</tt> if there's no delimiter across the boundary.
+     */
+    private int findSplitDelimiter(final ByteBuffer in)
+        {
+        final int buffered = m_segments.length();
+        final int beginPos = in.position();
+        final int available = in.remaining();
+        for (int head = Math.min(m_delimiter.length - 1, buffered);
+            head > 0; head--)
+            {
+            final int tail = m_delimiter.length - head;
+            if (tail > available)
+                {
+                // Not enough input yet -- it's checked again with the next
+                // buffer, since these bytes stay at the end of the data.
+                continue;
+                }
+            if (bufferedMatches(buffered - head, head) &&
+                matches(in, beginPos, head, tail))
+                {
+                return head;
+                }
+            }
+        return -1;
+        }
+
+    private boolean bufferedMatches(final int index, final int length)
+        {
+        for (int i = 0; i < length; i++)
+            {
+            if (m_segments.get(index + i) != m_delimiter[i])
+                {
+                return false;
+                }
+            }
+        return true;
+        }
+
+    private boolean matches(final ByteBuffer buf, final int index,
+        final int offset, final int length)
+        {
+        for (int i = 0; i < length; i++)
+            {
+            if (buf.get(index + i) != m_delimiter[offset + i])
+                {
+                return false;
+                }
+            }
+        return true;
+        }
+
+    private int indexOf(final ByteBuffer buf, final int from, final int to)
+        {
+        final int last = m_delimiter.length - 1;
+        int i = from;
+        while (i + last < to)
+            {
+            int j = last;
+            while (j >= 0 && buf.get(i + j) == m_delimiter[j])
+                {
+                j--;
+                }
+            if (j < 0)
+                {
+                return i;
+                }
+            i += m_shifts[buf.get(i + last) & 0xFF];
+            }
+        return -1;
+        }
+
+    /**
+     * Releases the inputs held for data read before the delimiter has 
+     * arrived, and discards that data.
+     */
+    public void release()
+        {
+        m_segments.release();
+        }
+
+    /**
+     * Called with the bytes before each delimiter.
+     *
+     * @param product The bytes read.  When they arrived in one piece this
+     * is a slice of the input that holds a reference to its memory, and it
+     * should be released once it's no longer needed.
+     * @param out The output to write to.
+     * @return The next state.
+     * @throws Exception If any error occurs.
+     */
+    protected abstract DecodingState finishDecode(ByteBuffer product,
+        ProtocolDecoderOutput out) throws Exception;
+    }
@@ -12,19 +12,27 @@ import org.slf4j.LoggerFactory;
  * terminator that is read ends the reading, i.e. it doesn't look for 
  * multiple terminators strung together.
  * 
- * The terminator is skipped.
+ * The terminator is skipped.<p>
+ * 
+ * Bytes that span reads are kept as views of the inputs they came in, 
+ * which stay acquired until the terminator is read, so an input must not 
+ * be reused, compacted or modified after it's decoded.  Call 
+ * {@link #release()} to let them go if the state is abandoned first.
  */
-public abstract class ConsumeToTerminatorDecodingState implements DecodingState 
+public abstract class ConsumeToTerminatorDecodingState
+    implements ReleasableDecodingState
     {
     
     private final Logger m_log = LoggerFactory.getLogger(getClass());
     
-    private ByteBuffer m_buffer;
+    private final SegmentList m_segments = new SegmentList();
 
     private final byte m_terminator1;
 
     private final byte m_terminator2;
 
+    private final boolean m_twoTerminators;
+
     private byte m_foundTerminator;
 
     /**
@@ -35,7 +43,8 @@ public abstract class ConsumeToTerminatorDecodingState implements DecodingState
     protected ConsumeToTerminatorDecodingState(final byte terminator)
         {
         m_terminator1 = terminator;
-        m_terminator2 = -1;
+        m_terminator2 = terminator;
+        m_twoTerminators = false;
         }
     
     /**
@@ -49,43 +58,41 @@ public abstract class ConsumeToTerminatorDecodingState implements DecodingState
         {
         m_terminator1 = terminator1;
         m_terminator2 = terminator2;
+        m_twoTerminators = true;
         }
 
     public DecodingState decode(final ByteBuffer in, 
         final ProtocolDecoderOutput out) throws Exception
         {
         int beginPos = in.position();
-        int terminatorPos = -1;
         int limit = in.limit();
-
-        for (int i = beginPos; i < limit; i++)
+        final int terminatorPos;
+        if (m_twoTerminators)
             {
-            final byte b = in.get(i);
-            if (b == this.m_terminator1 || b == this.m_terminator2)
-                {
-                this.m_foundTerminator = b;
-                terminatorPos = i;
-                break;
-                }
+            terminatorPos = ByteSearch.indexOfEither(in, beginPos, limit,
+                m_terminator1, m_terminator2);
+            }
+        else
+            {
+            terminatorPos = ByteSearch.indexOf(in, beginPos, limit,
+                m_terminator1);
             }
-
         if (terminatorPos >= 0)
             {
+            this.m_foundTerminator = in.get(terminatorPos);
             final ByteBuffer product;
 
             if (beginPos < terminatorPos)
                 {
                 in.limit(terminatorPos);
 
-                if (m_buffer == null)
+                if (m_segments.isEmpty())
                     {
                     product = in.slice();
                     }
                 else
                     {
-                    m_buffer.put(in);
-                    product = m_buffer.flip();
-                    m_buffer = null;
+                    product = m_segments.take(in);
                     }
 
                 in.limit(limit);
@@ -94,15 +101,14 @@ public abstract class ConsumeToTerminatorDecodingState implements DecodingState
                 {
                 // When input contained only terminator rather than actual
                 // data...
-                if (m_buffer == null)
+                if (m_segments.isEmpty())
                     {
                     product = ByteBuffer.allocate(1);
                     product.limit(0);
                     }
                 else
                     {
-                    product = m_buffer.flip();
-                    m_buffer = null;
+                    product = m_segments.take(null);
                     }
                 }
             
@@ -112,16 +118,31 @@ public abstract class ConsumeToTerminatorDecodingState implements DecodingState
             }
         else
             {
-            if (m_buffer == null)
-                {
-                m_buffer = ByteBuffer.allocate(in.remaining());
-                m_buffer.setAutoExpand(true);
-                }
-            m_buffer.put(in);
+            m_segments.add(in);
             return this;
             }
         }
 
+    /**
+     * Releases the inputs held for bytes read before a terminator, and 
+     * discards the bytes.
+     */
+    public void release()
+        {
+        m_segments.release();
+        }
+
+    /**
+     * Called with the bytes before each terminator.
+     * 
+     * @param foundTerminator The terminator that ended the bytes.
+     * @param product The bytes read.  If they came in a single read, this 
+     * is a slice of the input holding a reference to its memory -- release
+     * it once it's no longer needed.
+     * @param out The output to write to.
+     * @return The next state.
+     * @throws Exception If any error occurs.
+     */
     protected abstract DecodingState finishDecode(byte foundTerminator,
         ByteBuffer product, ProtocolDecoderOutput out) throws Exception;
     }
@@ -0,0 +1,110 @@
+package org.littleshoot.util.mina;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Consumes until a byte of a {@link ByteClass} is reached.  This is like
+ * {@link ConsumeToTerminatorDecodingState} with any number of terminators,
+ * such as all linear whitespace.
+ * 
+ * The terminating byte is skipped.<p>
+ * 
+ * Until the terminating byte arrives, the state holds on to the inputs it
+ * has read, acquiring them and keeping views of their bytes, so an input 
+ * must not be reused, compacted or modified after it's decoded.  Call 
+ * {@link #release()} if the state is abandoned before then.
+ */
+public abstract class ConsumeUntilClassDecodingState
+    implements ReleasableDecodingState
+    {
+
+    private final ByteClass m_terminators;
+
+    private final SegmentList m_segments = new SegmentList();
+
+    /**
+     * Creates a new instance.
+     * 
+     * @param terminators The bytes that end the data.
+     */
+    protected ConsumeUntilClassDecodingState(final ByteClass terminators)
+        {
+        m_terminators = terminators;
+        }
+
+    public DecodingState decode(final ByteBuffer in, 
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        final int beginPos = in.position();
+        final int limit = in.limit();
+        final int terminatorPos = m_terminators.indexOf(in, beginPos, limit);
+
+        if (terminatorPos >= 0)
+            {
+            final byte foundTerminator = in.get(terminatorPos);
+            final ByteBuffer product;
+
+            if (beginPos < terminatorPos)
+                {
+                in.limit(terminatorPos);
+
+                if (m_segments.isEmpty())
+                    {
+                    product = in.slice();
+                    }
+                else
+                    {
+                    product = m_segments.take(in);
+                    }
+
+                in.limit(limit);
+                }
+            else
+                {
+                // When input contained only the terminator rather than 
+                // actual data...
+                if (m_segments.isEmpty())
+                    {
+                    product = ByteBuffer.allocate(1);
+                    product.limit(0);
+                    }
+                else
+                    {
+                    product = m_segments.take(null);
+                    }
+                }
+
+            in.position(terminatorPos + 1);
+            return finishDecode(foundTerminator, product, out);
+            }
+        else
+            {
+            m_segments.add(in);
+            return this;
+            }
+        }
+
+    /**
+     * Releases the inputs held for bytes read before the terminating byte,
+     * and discards the bytes.
+     */
+    public void release()
+        {
+        m_segments.release();
+        }
+
+    /**
+     * Called with the bytes before the terminating byte.
+     *
+     * @param foundTerminator The byte that ended the data.
+     * @param product The bytes read, as a slice of the input holding a 
+     * reference to its memory if they came in a single read.  Release it 
+     * once it's no longer needed.
+     * @param out The output to write to.
+     * @return The next state.
+     * @throws Exception If any error occurs.
+     */
+    protected abstract DecodingState finishDecode(byte foundTerminator,
+        ByteBuffer product, ProtocolDecoderOutput out) throws Exception;
+    }
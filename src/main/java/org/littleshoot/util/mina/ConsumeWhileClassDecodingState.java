@@ -0,0 +1,107 @@
+package org.littleshoot.util.mina;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Consumes bytes while they belong to a {@link ByteClass}, such as the 
+ * characters of an HTTP token.
+ * 
+ * The first byte outside the class is left in the buffer for the next 
+ * state.<p>
+ * 
+ * A run of bytes that spans reads is held as views of the inputs, which 
+ * are acquired until the run ends, so an input must not be reused, 
+ * compacted or modified after it's decoded.  Call {@link #release()} if 
+ * the state is abandoned in the middle of a run.
+ */
+public abstract class ConsumeWhileClassDecodingState
+    implements ReleasableDecodingState
+    {
+
+    private final ByteClass m_byteClass;
+
+    private final SegmentList m_segments = new SegmentList();
+
+    /**
+     * Creates a new instance.
+     * 
+     * @param byteClass The bytes to consume.
+     */
+    protected ConsumeWhileClassDecodingState(final ByteClass byteClass)
+        {
+        m_byteClass = byteClass;
+        }
+
+    public DecodingState decode(final ByteBuffer in, 
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        final int beginPos = in.position();
+        final int limit = in.limit();
+        final int endPos = m_byteClass.indexOfNot(in, beginPos, limit);
+
+        if (endPos >= 0)
+            {
+            final ByteBuffer product;
+
+            if (beginPos < endPos)
+                {
+                in.limit(endPos);
+
+                if (m_segments.isEmpty())
+                    {
+                    product = in.slice();
+                    }
+                else
+                    {
+                    product = m_segments.take(in);
+                    }
+
+                in.limit(limit);
+                }
+            else
+                {
+                // When the input didn't start with any bytes of the class...
+                if (m_segments.isEmpty())
+                    {
+                    product = ByteBuffer.allocate(1);
+                    product.limit(0);
+                    }
+                else
+                    {
+                    product = m_segments.take(null);
+                    }
+                }
+
+            in.position(endPos);
+            return finishDecode(product, out);
+            }
+        else
+            {
+            m_segments.add(in);
+            return this;
+            }
+        }
+
+    /**
+     * Releases the inputs held for a run that hasn't ended yet, and 
+     * discards the run.
+     */
+    public void release()
+        {
+        m_segments.release();
+        }
+
+    /**
+     * Called with the bytes of the class once another byte is reached.
+     *
+     * @param product The bytes consumed.  Bytes that came in a single read 
+     * are handed over as a slice of the input that holds a reference to 
+     * its memory, so release it once it's no longer needed.
+     * @param out The output to write to.
+     * @return The next state.
+     * @throws Exception If any error occurs.
+     */
+    protected abstract DecodingState finishDecode(ByteBuffer product,
+        ProtocolDecoderOutput out) throws Exception;
+    }
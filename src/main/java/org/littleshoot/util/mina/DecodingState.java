@@ -4,7 +4,15 @@ import org.littleshoot.mina.common.ByteBuffer;
 import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
 
 /**
- * Interface for the various decoding states.  From AsyncWeb.
+ * Interface for the various decoding states.  From AsyncWeb.<p>
+ * 
+ * A state may keep a reference to the input after {@link #decode} returns
+ * -- the states that collect tokens spanning several reads acquire each
+ * input buffer and keep views of its bytes until the token is complete.
+ * Callers must release the input as usual once it's decoded, but must not
+ * reuse, compact or otherwise modify it afterwards.  States that do this
+ * implement {@link ReleasableDecodingState}, so the memory they hold can be
+ * released if they're abandoned part way through a token.
  */
 public interface DecodingState
     {
@@ -11,9 +11,12 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Taken from AsyncWeb.  This is a decoding state that is itself a state 
- * machine.
+ * machine.  Releasing it part way through a message releases the child 
+ * state it's in, along with any buffers among the child products, and 
+ * destroys it.
  */
-public abstract class DecodingStateMachine implements DecodingState 
+public abstract class DecodingStateMachine 
+    implements ReleasableDecodingState 
     {
     private final Logger LOG = 
         LoggerFactory.getLogger(DecodingStateMachine.class);
@@ -105,6 +108,12 @@ public abstract class DecodingStateMachine implements DecodingState
         catch (final Exception e)
             {
             LOG.warn("Caught exception!!", e);
+            if (state != null)
+                {
+                // A child state failed, so the products so far won't be
+                // finished.
+                abandon(state);
+                }
             state = null;
             throw e;
             }
@@ -116,16 +125,53 @@ public abstract class DecodingStateMachine implements DecodingState
             if (state == null)
                 {
                 m_childProducts.clear();
-                try
-                    {
-                    destroy();
-                    }
-                catch (Exception e2)
-                    {
-                    LOG.warn("Failed to destroy a decoding state machine.", e2);
-                    }
+                destroyQuietly();
+                }
+            }
+        }
+
+    /**
+     * Releases the current child state and the child products, and 
+     * destroys this state machine, if it's part way through a message.
+     */
+    public void release()
+        {
+        final DecodingState state = this.currentState;
+        if (state == null && m_childProducts.isEmpty())
+            {
+            return;
+            }
+        this.currentState = null;
+        abandon(state);
+        destroyQuietly();
+        }
+
+    private void abandon(final DecodingState state)
+        {
+        if (state instanceof ReleasableDecodingState)
+            {
+            ((ReleasableDecodingState) state).release();
+            }
+        for (final Object product : m_childProducts)
+            {
+            if (product instanceof ByteBuffer)
+                {
+                ((ByteBuffer) product).release();
                 }
             }
+        m_childProducts.clear();
+        }
+
+    private void destroyQuietly()
+        {
+        try
+            {
+            destroy();
+            }
+        catch (Exception e2)
+            {
+            LOG.warn("Failed to destroy a decoding state machine.", e2);
+            }
         }
 
     private void debugStateTransition(DecodingState oldState)
@@ -204,6 +204,12 @@ public class DemuxingProtocolCodecFactory implements ProtocolCodecFactory
 
         public void dispose(final IoSession session) throws Exception
             {
+            final DemuxableProtocolDecoder decoder = this.m_currentDecoder;
+            if (decoder != null)
+                {
+                this.m_currentDecoder = null;
+                decoder.dispose(session);
+                }
             }
 
         public void finishDecode(final IoSession session, 
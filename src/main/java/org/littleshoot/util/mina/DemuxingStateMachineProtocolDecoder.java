@@ -84,6 +84,7 @@ public class DemuxingStateMachineProtocolDecoder
             }
         catch (final Exception e)
             {
+            release(state);
             state = null;
             throw e;
             }
@@ -95,6 +96,18 @@ public class DemuxingStateMachineProtocolDecoder
 
     public void dispose(final IoSession session) throws Exception
         {
+        // Let go of anything held for a message that will never finish.
+        final DecodingState state = this.m_currentState;
+        this.m_currentState = null;
+        release(state);
+        }
+
+    private static void release(final DecodingState state)
+        {
+        if (state instanceof ReleasableDecodingState)
+            {
+            ((ReleasableDecodingState) state).release();
+            }
         }
 
     public void finishDecode(final IoSession session, 
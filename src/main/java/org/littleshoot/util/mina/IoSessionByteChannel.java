@@ -0,0 +1,235 @@
+package org.littleshoot.util.mina;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A blocking {@link ByteChannel} view of a MINA {@link IoSession}.  Reads
+ * come straight from an {@link IoSessionInputStream}'s received data, and
+ * writes go to the session as MINA {@link ByteBuffer}s through the 
+ * session's output stream, so they're ordered with stream writes.<p>
+ *
+ * Like a socket channel, the channel stays open until it's closed.  Once
+ * the session disconnects, reads return the data already received and 
+ * then <tt>-1</tt>, while writes fail.
+ */
+public final class IoSessionByteChannel 
+    implements ByteChannel, ScatteringByteChannel, GatheringByteChannel
+    {
+
+    private final Logger m_log = LoggerFactory.getLogger(getClass());
+    private final IoSession m_ioSession;
+    private final InputStream m_in;
+    private final OutputStream m_out;
+    private volatile boolean m_closed;
+
+    /**
+     * Creates a new channel for the specified session.
+     * 
+     * @param ioSession The MINA {@link IoSession}.
+     * @param in The {@link InputStream} receiving data for the session.
+     * @param out The {@link OutputStream} for the session.
+     */
+    public IoSessionByteChannel(final IoSession ioSession, 
+        final InputStream in, final OutputStream out)
+        {
+        this.m_ioSession = ioSession;
+        this.m_in = in;
+        this.m_out = out;
+        }
+
+    public boolean isOpen()
+        {
+        return !m_closed;
+        }
+
+    public void close() throws IOException
+        {
+        m_log.debug("Closing channel...");
+        m_closed = true;
+        m_ioSession.close();
+        }
+
+    public int read(final java.nio.ByteBuffer dst) throws IOException
+        {
+        checkOpen();
+        if (!dst.hasRemaining())
+            {
+            return 0;
+            }
+        if (m_in instanceof IoSessionInputStream)
+            {
+            return ((IoSessionInputStream) m_in).read(dst);
+            }
+        if (dst.hasArray())
+            {
+            final int read = m_in.read(dst.array(), 
+                dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0)
+                {
+                dst.position(dst.position() + read);
+                }
+            return read;
+            }
+        final byte[] bytes = new byte[Math.min(dst.remaining(), 8192)];
+        final int read = m_in.read(bytes);
+        if (read > 0)
+            {
+            dst.put(bytes, 0, read);
+            }
+        return read;
+        }
+
+    /**
+     * Reads into the specified buffers.  This only blocks until some data
+     * is available, filling as many of the buffers as it can from what's 
+     * already been received.
+     */
+    public long read(final java.nio.ByteBuffer[] dsts, final int offset, 
+        final int length) throws IOException
+        {
+        checkOpen();
+        long total = 0;
+        for (int i = offset; i < offset + length; i++)
+            {
+            final java.nio.ByteBuffer dst = dsts[i];
+            if (!dst.hasRemaining())
+                {
+                continue;
+                }
+            if (total > 0 && m_in.available() == 0)
+                {
+                break;
+                }
+            final int read = read(dst);
+            if (read == -1)
+                {
+                return total == 0 ? -1 : total;
+                }
+            total += read;
+            if (dst.hasRemaining())
+                {
+                break;
+                }
+            }
+        return total;
+        }
+
+    public long read(final java.nio.ByteBuffer[] dsts) throws IOException
+        {
+        return read(dsts, 0, dsts.length);
+        }
+
+    public int write(final java.nio.ByteBuffer src) throws IOException
+        {
+        checkWritable();
+        final int length = src.remaining();
+        if (length == 0)
+            {
+            return 0;
+            }
+        if (m_out instanceof ByteBufferIoSessionOutputStream)
+            {
+            final ByteBuffer buf = 
+                BufferStrategy.allocate(m_ioSession, length);
+            buf.put(src);
+            buf.flip();
+            ((ByteBufferIoSessionOutputStream) m_out).write(buf);
+            }
+        else
+            {
+            writeToStream(src);
+            }
+        return length;
+        }
+
+    /**
+     * Writes the specified buffers.  With a {@link ByteBuffer} stream they're
+     * gathered into a single write to the session.
+     */
+    public long write(final java.nio.ByteBuffer[] srcs, final int offset, 
+        final int length) throws IOException
+        {
+        checkWritable();
+        long total = 0;
+        for (int i = offset; i < offset + length; i++)
+            {
+            total += srcs[i].remaining();
+            }
+        if (total == 0)
+            {
+            return 0;
+            }
+        if (m_out instanceof ByteBufferIoSessionOutputStream && 
+            total <= Integer.MAX_VALUE)
+            {
+            final ByteBuffer buf = 
+                BufferStrategy.allocate(m_ioSession, (int) total);
+            for (int i = offset; i < offset + length; i++)
+                {
+                buf.put(srcs[i]);
+                }
+            buf.flip();
+            ((ByteBufferIoSessionOutputStream) m_out).write(buf);
+            }
+        else
+            {
+            for (int i = offset; i < offset + length; i++)
+                {
+                writeToStream(srcs[i]);
+                }
+            }
+        return total;
+        }
+
+    public long write(final java.nio.ByteBuffer[] srcs) throws IOException
+        {
+        return write(srcs, 0, srcs.length);
+        }
+
+    private void writeToStream(final java.nio.ByteBuffer src) 
+        throws IOException
+        {
+        if (src.hasArray())
+            {
+            m_out.write(src.array(), src.arrayOffset() + src.position(), 
+                src.remaining());
+            src.position(src.limit());
+            return;
+            }
+        final byte[] bytes = new byte[Math.min(src.remaining(), 8192)];
+        while (src.hasRemaining())
+            {
+            final int n = Math.min(bytes.length, src.remaining());
+            src.get(bytes, 0, n);
+            m_out.write(bytes, 0, n);
+            }
+        }
+
+    private void checkOpen() throws ClosedChannelException
+        {
+        if (!isOpen())
+            {
+            throw new ClosedChannelException();
+            }
+        }
+
+    private void checkWritable() throws IOException
+        {
+        checkOpen();
+        if (!m_ioSession.isConnected())
+            {
+            throw new IOException("The session has been closed.");
+            }
+        }
+    }
@@ -21,6 +21,19 @@ package org.littleshoot.util.mina;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.littleshoot.mina.common.ByteBuffer;
 import org.littleshoot.mina.common.IoHandler;
@@ -30,7 +43,25 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An {@link InputStream} that buffers data read from
- * {@link IoHandler#messageReceived(IoSession, Object)} events.
+ * {@link IoHandler#messageReceived(IoSession, Object)} events.<p>
+ * 
+ * By default received data is copied into a single buffer.  In segmented 
+ * mode the received {@link ByteBuffer}s are instead queued as they are and 
+ * reads drain them in place, releasing each one once it's empty.  Segmented
+ * mode assumes a single writing and a single reading thread and hands data
+ * between them without locking -- the reader spins briefly and then parks,
+ * and the writer only wakes the reader if it's actually parked.  Closing 
+ * the stream releases the queued segments, and the one being read once no
+ * read is using it.<p>
+ * 
+ * If read watermarks are set, the stream suspends reads on the session when
+ * the buffered data reaches the high watermark and resumes them once the 
+ * reader has drained it to the low watermark, bounding the memory held for 
+ * slow readers.<p>
+ * 
+ * Blocking reads wait on {@link java.util.concurrent.locks} conditions or 
+ * park rather than waiting on monitors, so they're safe to call from 
+ * virtual threads.
  *
  * @author The Apache Directory Project (mina-dev@directory.apache.org)
  * @version $Rev: 555855 $, $Date: 2007-07-13 12:19:00 +0900 (금, 13  7월 2007) $
@@ -38,28 +69,209 @@ import org.slf4j.LoggerFactory;
 public class IoSessionInputStream extends InputStream
     {
     private final Logger m_log = LoggerFactory.getLogger(getClass());
-    private final Object m_mutex = new Object();
+
+    /**
+     * Guards the buffer in copying mode.  This is a {@link Lock} rather than
+     * a monitor so blocked readers don't pin virtual threads.
+     */
+    private final Lock m_lock = new ReentrantLock();
+    private final Condition m_dataAvailable = m_lock.newCondition();
+
+    /**
+     * The number of times a reader in segmented mode checks for data before
+     * parking.  Spinning is pointless with a single processor.
+     */
+    private static final int SPINS = 
+        Runtime.getRuntime().availableProcessors() > 1 ? 128 : 0;
+
+    private static final int TRANSFER_CHUNK_SIZE = 8192;
 
     private final ByteBuffer m_buf;
 
+    /**
+     * The received buffers when in segmented mode, oldest first.
+     */
+    private final Queue<ByteBuffer> m_segments;
+
+    /**
+     * The segment the reader is currently draining.  Only accessed while
+     * holding {@link #m_segmentBusy}.
+     */
+    private ByteBuffer m_segment;
+
+    /**
+     * Claimed by the reader while it works on the segments, and by 
+     * {@link #close()} to release the reader's current segment when no read
+     * is in progress.
+     */
+    private final AtomicBoolean m_segmentBusy = new AtomicBoolean();
+
+    /**
+     * Scratch space for transferring segments without backing arrays.  Only
+     * accessed from the reading thread.
+     */
+    private byte[] m_scratch;
+
+    private final AtomicInteger m_segmentBytes = new AtomicInteger();
+
+    /**
+     * The reading thread when it's parked waiting for data in segmented mode.
+     */
+    private volatile Thread m_waiter;
+
+    private final boolean m_segmented;
+
     private volatile boolean m_closed;
 
     private volatile boolean m_released;
 
-    private IOException m_exception;
+    private volatile IOException m_exception;
+
+    /**
+     * Guards suspending and resuming reads on the session.
+     */
+    private final Lock m_flowLock = new ReentrantLock();
+    private volatile int m_lowWatermark;
+    private volatile int m_highWatermark;
+    private volatile boolean m_readSuspended;
+
     private final IoSession m_ioSession;
-    private final int m_readTimeout;
-    private volatile int m_rawBytesReceived = 0;
-    private volatile int m_totalReadBytes;
+    private volatile int m_readTimeout;
+    private final AtomicLong m_bytesReceived = new AtomicLong();
+    private final AtomicLong m_bytesRead = new AtomicLong();
+    private final AtomicLong m_readWaitNanos = new AtomicLong();
 
     public IoSessionInputStream(final IoSession ioSession, 
         final int readTimeout)
         {
+        this(ioSession, readTimeout, false);
+        }
+
+    /**
+     * Creates a new input stream for the specified session.
+     * 
+     * @param ioSession The session.
+     * @param readTimeout The read timeout in milliseconds, or <tt>0</tt> to
+     * wait indefinitely.
+     * @param segmented Whether or not to queue received buffers without 
+     * copying them instead of copying them into a single buffer.
+     */
+    public IoSessionInputStream(final IoSession ioSession, 
+        final int readTimeout, final boolean segmented)
+        {
         m_ioSession = ioSession;
         m_readTimeout = readTimeout;
-        m_buf = ByteBuffer.allocate(16);
-        m_buf.setAutoExpand(true);
-        m_buf.limit(0);
+        m_segmented = segmented;
+        if (segmented)
+            {
+            m_buf = null;
+            m_segments = new ConcurrentLinkedQueue<ByteBuffer>();
+            }
+        else
+            {
+            m_buf = BufferStrategy.allocate(ioSession, 16);
+            m_buf.setAutoExpand(true);
+            m_buf.limit(0);
+            m_segments = null;
+            }
+        }
+
+    /**
+     * Sets the read timeout.  A read that waits longer than this for data 
+     * throws a {@link SocketTimeoutException}, but the stream remains valid
+     * and can be read again.
+     * 
+     * @param readTimeout The read timeout in milliseconds, or <tt>0</tt> to
+     * wait indefinitely.
+     */
+    public void setReadTimeout(final int readTimeout)
+        {
+        if (readTimeout < 0)
+            {
+            throw new IllegalArgumentException("Negative timeout: "+
+                readTimeout);
+            }
+        m_readTimeout = readTimeout;
+        }
+
+    /**
+     * Returns the read timeout in milliseconds, or <tt>0</tt> if reads wait
+     * indefinitely.
+     * 
+     * @return The read timeout.
+     */
+    public int getReadTimeout()
+        {
+        return m_readTimeout;
+        }
+
+    /**
+     * Returns the total number of bytes received from the session.
+     * 
+     * @return The number of bytes received.
+     */
+    public long getBytesReceived()
+        {
+        return m_bytesReceived.get();
+        }
+
+    /**
+     * Returns the total number of bytes read from this stream.
+     * 
+     * @return The number of bytes read.
+     */
+    public long getBytesRead()
+        {
+        return m_bytesRead.get();
+        }
+
+    /**
+     * Returns the total time readers have spent waiting for data.
+     * 
+     * @return The time spent waiting for data in nanoseconds.
+     */
+    public long getReadWaitNanos()
+        {
+        return m_readWaitNanos.get();
+        }
+
+    /**
+     * Sets the read watermarks.  Reads on the session are suspended when at
+     * least <code>highWatermark</code> bytes are buffered and resumed once
+     * <code>lowWatermark</code> or fewer bytes are buffered.  A high 
+     * watermark of <tt>0</tt> disables flow control, which is the default.
+     * 
+     * @param lowWatermark The number of buffered bytes at or below which 
+     * reads are resumed.
+     * @param highWatermark The number of buffered bytes at or above which 
+     * reads are suspended.
+     */
+    public void setReadWatermarks(final int lowWatermark, 
+        final int highWatermark)
+        {
+        if (lowWatermark < 0 || highWatermark < 0)
+            {
+            throw new IllegalArgumentException("Negative watermark");
+            }
+        if (highWatermark > 0 && lowWatermark >= highWatermark)
+            {
+            throw new IllegalArgumentException(
+                "Low watermark must be below high watermark");
+            }
+        m_lowWatermark = lowWatermark;
+        m_highWatermark = highWatermark;
+        }
+
+    /**
+     * Returns whether or not reads on the session are currently suspended 
+     * because the reader has fallen behind.
+     * 
+     * @return <code>true</code> if reads are suspended, otherwise
+     * <code>false</code>.
+     */
+    public boolean isReadSuspended()
+        {
+        return m_readSuspended;
         }
 
     public int available()
@@ -68,12 +280,21 @@ public class IoSessionInputStream extends InputStream
             {
             return 0;
             }
+        else if (m_segmented)
+            {
+            return m_segmentBytes.get();
+            }
         else
             {
-            synchronized (m_mutex)
+            m_lock.lock();
+            try
                 {
                 return m_buf.remaining();
                 }
+            finally
+                {
+                m_lock.unlock();
+                }
             }
         }
 
@@ -85,25 +306,75 @@ public class IoSessionInputStream extends InputStream
             return;
             }
 
-        synchronized (m_mutex)
+        if (m_segmented)
             {
             m_closed = true;
             releaseBuffer();
+            releaseIdleSegment();
+            LockSupport.unpark(m_waiter);
+            return;
+            }
 
-            m_mutex.notifyAll();
+        m_lock.lock();
+        try
+            {
+            m_closed = true;
+            releaseBuffer();
+
+            m_dataAvailable.signalAll();
+            }
+        finally
+            {
+            m_lock.unlock();
             }
         }
 
     public int read() throws IOException
         {
-        synchronized (m_mutex)
+        if (m_segmented)
+            {
+            beginSegmentRead();
+            try
+                {
+                if (!awaitSegments())
+                    {
+                    return -1;
+                    }
+                final ByteBuffer segment = nextSegment();
+                if (segment == null)
+                    {
+                    // Closed since the wait.
+                    releaseSegment();
+                    return -1;
+                    }
+                final int b = segment.get() & 0xff;
+                m_segmentBytes.decrementAndGet();
+                resumeReadIfDrained();
+                m_bytesRead.incrementAndGet();
+                return b;
+                }
+            finally
+                {
+                endSegmentRead();
+                }
+            }
+
+        m_lock.lock();
+        try
             {
             if (!waitForData())
                 {
                 return -1;
                 }
 
-            return m_buf.get() & 0xff;
+            final int b = m_buf.get() & 0xff;
+            resumeReadIfDrained();
+            m_bytesRead.incrementAndGet();
+            return b;
+            }
+        finally
+            {
+            m_lock.unlock();
             }
         }
 
@@ -112,7 +383,37 @@ public class IoSessionInputStream extends InputStream
         {
         //Thread.dumpStack();
         m_log.debug("Reading data...");
-        synchronized (m_mutex)
+        if (m_segmented)
+            {
+            beginSegmentRead();
+            try
+                {
+                if (!awaitSegments())
+                    {
+                    return -1;
+                    }
+                // Only read what's been counted so the count never goes 
+                // negative.
+                final int readBytes = 
+                    readSegments(b, off, Math.min(len, m_segmentBytes.get()));
+                if (readBytes == 0 && len > 0)
+                    {
+                    // Closed since the wait.
+                    releaseSegment();
+                    return -1;
+                    }
+                resumeReadIfDrained();
+                m_bytesRead.addAndGet(readBytes);
+                return readBytes;
+                }
+            finally
+                {
+                endSegmentRead();
+                }
+            }
+
+        m_lock.lock();
+        try
             {
             if (!waitForData())
                 {
@@ -120,24 +421,453 @@ public class IoSessionInputStream extends InputStream
                 return -1;
                 }
             m_log.debug("Continuing with read...");
-            int readBytes;
+            final int readBytes = Math.min(len, m_buf.remaining());
+            m_log.debug("Copying bytes...");
+            m_buf.get(b, off, readBytes);
+            resumeReadIfDrained();
+
+            m_log.debug("Total read bytes: {}", 
+                m_bytesRead.addAndGet(readBytes));
+            return readBytes;
+            }
+        finally
+            {
+            m_lock.unlock();
+            }
+        }
 
-            if (len > m_buf.remaining())
+    /**
+     * Copies as many bytes as are available up to the requested length 
+     * straight out of the queued segments, releasing each segment as it's 
+     * emptied.
+     */
+    private int readSegments(final byte[] b, final int off, final int len)
+        {
+        int readBytes = 0;
+        ByteBuffer segment;
+        while (readBytes < len && (segment = nextSegment()) != null)
+            {
+            final int toRead = Math.min(len - readBytes, segment.remaining());
+            segment.get(b, off + readBytes, toRead);
+            readBytes += toRead;
+            }
+        m_segmentBytes.addAndGet(-readBytes);
+        return readBytes;
+        }
+
+    /**
+     * Reads as many bytes as are available, up to the remaining space in 
+     * the destination buffer, blocking until at least one byte is available.
+     * 
+     * @param dst The buffer to read into.
+     * @return The number of bytes read, or <tt>-1</tt> if the stream is 
+     * closed.
+     * @throws IOException If any IO error occurs.
+     */
+    public int read(final java.nio.ByteBuffer dst) throws IOException
+        {
+        if (!dst.hasRemaining())
+            {
+            return 0;
+            }
+        if (m_segmented)
+            {
+            beginSegmentRead();
+            try
                 {
-                readBytes = m_buf.remaining();
+                if (!awaitSegments())
+                    {
+                    return -1;
+                    }
+                final int available = 
+                    Math.min(dst.remaining(), m_segmentBytes.get());
+                int readBytes = 0;
+                ByteBuffer segment;
+                while (readBytes < available && 
+                    (segment = nextSegment()) != null)
+                    {
+                    final int n = 
+                        Math.min(available - readBytes, segment.remaining());
+                    put(dst, segment.buf(), n);
+                    readBytes += n;
+                    }
+                if (readBytes == 0)
+                    {
+                    // Closed since the wait.
+                    releaseSegment();
+                    return -1;
+                    }
+                m_segmentBytes.addAndGet(-readBytes);
+                resumeReadIfDrained();
+                m_bytesRead.addAndGet(readBytes);
+                return readBytes;
                 }
-            else
+            finally
                 {
-                readBytes = len;
+                endSegmentRead();
                 }
+            }
 
-            m_log.debug("Copying bytes...");
-            m_buf.get(b, off, readBytes);
-
-            m_totalReadBytes += readBytes;
-            m_log.debug("Total read bytes: {}", m_totalReadBytes);
+        m_lock.lock();
+        try
+            {
+            if (!waitForData())
+                {
+                return -1;
+                }
+            final int readBytes = Math.min(dst.remaining(), m_buf.remaining());
+            put(dst, m_buf.buf(), readBytes);
+            resumeReadIfDrained();
+            m_bytesRead.addAndGet(readBytes);
             return readBytes;
             }
+        finally
+            {
+            m_lock.unlock();
+            }
+        }
+
+    /**
+     * Writes all data from this stream to the specified stream until this
+     * stream is closed.  In segmented mode bytes are written straight from 
+     * the received buffers.
+     * 
+     * @param out The stream to write to.
+     * @return The number of bytes transferred.
+     * @throws IOException If any IO error occurs reading or writing.
+     */
+    public long transferTo(final OutputStream out) throws IOException
+        {
+        long transferred = 0;
+        if (m_segmented)
+            {
+            beginSegmentRead();
+            try
+                {
+                while (awaitSegments())
+                    {
+                    int available = m_segmentBytes.get();
+                    while (available > 0)
+                        {
+                        final ByteBuffer segment = nextSegment();
+                        if (segment == null)
+                            {
+                            // Closed since the wait.
+                            releaseSegment();
+                            return transferred;
+                            }
+                        final int n = Math.min(available, segment.remaining());
+                        final java.nio.ByteBuffer buf = segment.buf();
+                        final int start = buf.position();
+                        try
+                            {
+                            writeTo(buf, n, out);
+                            }
+                        finally
+                            {
+                            // Count whatever was taken from the segment, 
+                            // even if the write failed part way.
+                            segmentBytesRead(buf.position() - start);
+                            }
+                        available -= n;
+                        transferred += n;
+                        }
+                    }
+                return transferred;
+                }
+            finally
+                {
+                endSegmentRead();
+                }
+            }
+
+        final byte[] chunk = new byte[TRANSFER_CHUNK_SIZE];
+        int read;
+        while ((read = read(chunk, 0, chunk.length)) != -1)
+            {
+            out.write(chunk, 0, read);
+            transferred += read;
+            }
+        return transferred;
+        }
+
+    /**
+     * Writes all data from this stream to the specified channel until this
+     * stream is closed.  In segmented mode the received buffers are written
+     * to the channel directly.  The channel should be in blocking mode.
+     * 
+     * @param channel The channel to write to.
+     * @return The number of bytes transferred.
+     * @throws IOException If any IO error occurs reading or writing.
+     */
+    public long transferTo(final WritableByteChannel channel) 
+        throws IOException
+        {
+        long transferred = 0;
+        if (m_segmented)
+            {
+            beginSegmentRead();
+            try
+                {
+                while (awaitSegments())
+                    {
+                    int available = m_segmentBytes.get();
+                    while (available > 0)
+                        {
+                        final ByteBuffer segment = nextSegment();
+                        if (segment == null)
+                            {
+                            // Closed since the wait.
+                            releaseSegment();
+                            return transferred;
+                            }
+                        final int n = Math.min(available, segment.remaining());
+                        final java.nio.ByteBuffer buf = segment.buf();
+                        final int start = buf.position();
+                        final int limit = buf.limit();
+                        buf.limit(start + n);
+                        try
+                            {
+                            while (buf.hasRemaining())
+                                {
+                                channel.write(buf);
+                                }
+                            }
+                        finally
+                            {
+                            buf.limit(limit);
+                            segmentBytesRead(buf.position() - start);
+                            }
+                        available -= n;
+                        transferred += n;
+                        }
+                    }
+                return transferred;
+                }
+            finally
+                {
+                endSegmentRead();
+                }
+            }
+
+        final java.nio.ByteBuffer chunk = 
+            java.nio.ByteBuffer.allocate(TRANSFER_CHUNK_SIZE);
+        while (read(chunk) != -1)
+            {
+            chunk.flip();
+            while (chunk.hasRemaining())
+                {
+                transferred += channel.write(chunk);
+                }
+            chunk.clear();
+            }
+        return transferred;
+        }
+
+    /**
+     * Accounts for bytes taken from the segments outside of the lock.
+     */
+    private void segmentBytesRead(final int n)
+        {
+        if (n == 0)
+            {
+            return;
+            }
+        m_segmentBytes.addAndGet(-n);
+        resumeReadIfDrained();
+        m_bytesRead.addAndGet(n);
+        }
+
+    /**
+     * Moves the specified number of bytes from the source to the 
+     * destination.
+     */
+    private static void put(final java.nio.ByteBuffer dst, 
+        final java.nio.ByteBuffer src, final int length)
+        {
+        final int limit = src.limit();
+        src.limit(src.position() + length);
+        dst.put(src);
+        src.limit(limit);
+        }
+
+    /**
+     * Writes the specified number of bytes from the buffer to the stream,
+     * using the buffer's backing array if it has one.
+     */
+    private void writeTo(final java.nio.ByteBuffer buf, final int length,
+        final OutputStream out) throws IOException
+        {
+        if (buf.hasArray())
+            {
+            out.write(buf.array(), buf.arrayOffset() + buf.position(), length);
+            buf.position(buf.position() + length);
+            return;
+            }
+        if (m_scratch == null)
+            {
+            m_scratch = new byte[TRANSFER_CHUNK_SIZE];
+            }
+        int remaining = length;
+        while (remaining > 0)
+            {
+            final int n = Math.min(remaining, m_scratch.length);
+            buf.get(m_scratch, 0, n);
+            out.write(m_scratch, 0, n);
+            remaining -= n;
+            }
+        }
+
+    /**
+     * Returns the segment to read from, moving on to the next queued segment
+     * and releasing the current one if it's been fully read.
+     * 
+     * @return The segment to read from, or <code>null</code> if there's no
+     * more data.
+     */
+    private ByteBuffer nextSegment()
+        {
+        if (m_segment != null)
+            {
+            if (m_segment.hasRemaining())
+                {
+                return m_segment;
+                }
+            m_segment.release();
+            }
+        m_segment = m_segments.poll();
+        return m_segment;
+        }
+
+    /**
+     * Waits for data in segmented mode without taking any locks.
+     * 
+     * @return <code>true</code> if there's data to read, otherwise 
+     * <code>false</code> if the stream is closed.
+     * @throws IOException If an exception was passed to the stream or we're
+     * interrupted while waiting.
+     */
+    private boolean awaitSegments() throws IOException
+        {
+        int spins = SPINS;
+        final int timeout = m_readTimeout;
+        final long deadline = System.nanoTime() + 
+            TimeUnit.MILLISECONDS.toNanos(timeout);
+        while (true)
+            {
+            if (m_released)
+                {
+                releaseSegment();
+                return false;
+                }
+            if (m_exception != null)
+                {
+                releaseBuffer();
+                releaseSegment();
+                throw m_exception;
+                }
+            if (m_segmentBytes.get() > 0)
+                {
+                return true;
+                }
+            if (m_closed)
+                {
+                releaseBuffer();
+                releaseSegment();
+                return false;
+                }
+            if (spins > 0)
+                {
+                spins--;
+                continue;
+                }
+
+            // Make sure we're not about to wait on a suspended session, and
+            // publish ourselves before checking again so the writer either
+            // sees us waiting or we see its data.
+            resumeReadIfDrained();
+            m_waiter = Thread.currentThread();
+            if (m_segmentBytes.get() == 0 && !m_closed && m_exception == null)
+                {
+                final long start = System.nanoTime();
+                if (timeout > 0)
+                    {
+                    final long nanos = deadline - start;
+                    if (nanos <= 0)
+                        {
+                        m_waiter = null;
+                        throw new SocketTimeoutException("Read timed out");
+                        }
+                    LockSupport.parkNanos(this, nanos);
+                    }
+                else
+                    {
+                    LockSupport.park(this);
+                    }
+                m_readWaitNanos.addAndGet(System.nanoTime() - start);
+                }
+            m_waiter = null;
+            if (Thread.interrupted())
+                {
+                throw new IOException(
+                    "Interrupted while waiting for more data");
+                }
+            }
+        }
+
+    private void releaseSegment()
+        {
+        if (m_segment != null)
+            {
+            m_segment.release();
+            m_segment = null;
+            }
+        }
+
+    /**
+     * Claims the reader's segment for a read.  A close releasing the 
+     * segment only holds the claim briefly, so this just spins.
+     */
+    private void beginSegmentRead()
+        {
+        while (!m_segmentBusy.compareAndSet(false, true))
+            {
+            Thread.yield();
+            }
+        }
+
+    /**
+     * Gives up the claim on the reader's segment, releasing the segment if
+     * the stream was closed while the read held the claim.
+     */
+    private void endSegmentRead()
+        {
+        m_segmentBusy.set(false);
+        if (m_released)
+            {
+            releaseIdleSegment();
+            }
+        }
+
+    /**
+     * Releases the reader's current segment once the stream is closed, 
+     * unless a read is in progress -- the read releases it itself when it
+     * finishes.
+     */
+    private void releaseIdleSegment()
+        {
+        if (!m_segmentBusy.compareAndSet(false, true))
+            {
+            return;
+            }
+        try
+            {
+            releaseSegment();
+            }
+        finally
+            {
+            m_segmentBusy.set(false);
+            }
         }
 
     private boolean waitForData() throws IOException
@@ -148,14 +878,32 @@ public class IoSessionInputStream extends InputStream
             return false;
             }
 
-        synchronized (m_mutex)
+        final int timeout = this.m_readTimeout;
+        long nanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        m_lock.lock();
+        try
             {
             while (!m_released && m_buf.remaining() == 0 && m_exception == null)
                 {
+                resumeReadIfDrained();
                 try
                     {
-                    m_log.debug("Waiting for data for: "+this.m_readTimeout);
-                    m_mutex.wait(this.m_readTimeout);
+                    m_log.debug("Waiting for data for: "+timeout);
+                    final long start = System.nanoTime();
+                    if (timeout > 0)
+                        {
+                        if (nanos <= 0)
+                            {
+                            throw new SocketTimeoutException(
+                                "Read timed out");
+                            }
+                        nanos = m_dataAvailable.awaitNanos(nanos);
+                        }
+                    else
+                        {
+                        m_dataAvailable.await();
+                        }
+                    m_readWaitNanos.addAndGet(System.nanoTime() - start);
                     }
                 catch (final InterruptedException e)
                     {
@@ -166,6 +914,10 @@ public class IoSessionInputStream extends InputStream
                     }
                 }
             }
+        finally
+            {
+            m_lock.unlock();
+            }
 
         if (m_exception != null)
             {
@@ -191,15 +943,46 @@ public class IoSessionInputStream extends InputStream
             }
 
         m_released = true;
-        m_buf.release();
+        if (m_segmented)
+            {
+            // The segment currently being read is released separately, 
+            // since a read may be using it.
+            releaseQueuedSegments();
+            }
+        else
+            {
+            m_buf.release();
+            }
+        }
+
+    private void releaseQueuedSegments()
+        {
+        ByteBuffer segment;
+        while ((segment = m_segments.poll()) != null)
+            {
+            segment.release();
+            }
         }
 
+    /**
+     * Adds received data to the stream.  In segmented mode the buffer is 
+     * acquired and queued rather than copied, so callers should not modify
+     * it afterwards.
+     * 
+     * @param src The received data.
+     */
     public void write(final ByteBuffer src)
         {
         m_log.debug("Writing data to input stream...");
-        m_rawBytesReceived += src.remaining();
-        m_log.debug("Received raw bytes: {}", m_rawBytesReceived);
-        synchronized (m_mutex)
+        m_log.debug("Received raw bytes: {}", 
+            m_bytesReceived.addAndGet(src.remaining()));
+        if (m_segmented)
+            {
+            writeSegment(src);
+            return;
+            }
+        m_lock.lock();
+        try
             {
             if (m_closed)
                 {
@@ -213,7 +996,8 @@ public class IoSessionInputStream extends InputStream
                 this.m_buf.compact();
                 this.m_buf.put(src);
                 this.m_buf.flip();
-                m_mutex.notifyAll();
+                suspendReadIfFull();
+                m_dataAvailable.signalAll();
                 }
             else
                 {
@@ -221,21 +1005,129 @@ public class IoSessionInputStream extends InputStream
                 this.m_buf.clear();
                 this.m_buf.put(src);
                 this.m_buf.flip();
-                m_mutex.notifyAll();
+                suspendReadIfFull();
+                m_dataAvailable.signalAll();
                 }
             }
+        finally
+            {
+            m_lock.unlock();
+            }
+        }
+
+    private void writeSegment(final ByteBuffer src)
+        {
+        if (m_closed || !src.hasRemaining())
+            {
+            return;
+            }
+        // The reader can start on the segment as soon as it's queued, so 
+        // count it first.
+        final int remaining = src.remaining();
+        src.acquire();
+        m_segments.add(src);
+        m_segmentBytes.addAndGet(remaining);
+        if (m_released)
+            {
+            // We raced with close.
+            releaseQueuedSegments();
+            return;
+            }
+        suspendReadIfFull();
+
+        final Thread waiter = m_waiter;
+        if (waiter != null)
+            {
+            LockSupport.unpark(waiter);
+            }
+        }
+
+    /**
+     * Returns the number of buffered bytes.  In copying mode the caller must
+     * hold the lock.
+     */
+    private int bufferedBytes()
+        {
+        if (m_segmented)
+            {
+            return m_segmentBytes.get();
+            }
+        return m_buf.remaining();
+        }
+
+    private void suspendReadIfFull()
+        {
+        final int high = m_highWatermark;
+        if (high <= 0 || m_readSuspended || bufferedBytes() < high)
+            {
+            return;
+            }
+        m_flowLock.lock();
+        try
+            {
+            if (m_readSuspended || bufferedBytes() < high)
+                {
+                return;
+                }
+            m_log.debug("Suspending reads with {} buffered bytes", 
+                bufferedBytes());
+            m_readSuspended = true;
+            m_ioSession.suspendRead();
+
+            // The reader may have drained everything before it could see 
+            // we've suspended reads, in which case nobody else will resume 
+            // them.
+            if (bufferedBytes() <= m_lowWatermark)
+                {
+                m_readSuspended = false;
+                m_ioSession.resumeRead();
+                }
+            }
+        finally
+            {
+            m_flowLock.unlock();
+            }
+        }
+
+    private void resumeReadIfDrained()
+        {
+        if (!m_readSuspended || bufferedBytes() > m_lowWatermark)
+            {
+            return;
+            }
+        m_flowLock.lock();
+        try
+            {
+            if (!m_readSuspended || bufferedBytes() > m_lowWatermark)
+                {
+                return;
+                }
+            m_log.debug("Resuming reads");
+            m_readSuspended = false;
+            m_ioSession.resumeRead();
+            }
+        finally
+            {
+            m_flowLock.unlock();
+            }
         }
 
     public void throwException(IOException e)
         {
-        synchronized (m_mutex)
+        m_lock.lock();
+        try
             {
             if (m_exception == null)
                 {
                 m_exception = e;
 
-                m_mutex.notifyAll();
+                m_dataAvailable.signalAll();
                 }
             }
+        finally
+            {
+            m_lock.unlock();
+            }
+        LockSupport.unpark(m_waiter);
         }
     }
\ No newline at end of file
@@ -29,6 +29,9 @@ public final class IoSessionSocket extends Socket
     private final InputStream m_in;
     private final OutputStream m_out;
     private final SocketSessionConfig m_socketSessionConfig;
+    private volatile int m_soTimeout;
+    private final IoSessionByteChannel m_channel;
+    private final IoSessionStats m_stats;
 
     /**
      * Creates a new {@link Socket} subclass that works with MINA sessions.
@@ -45,6 +48,8 @@ public final class IoSessionSocket extends Socket
         this.m_out = out;
         this.m_socketSessionConfig = (SocketSessionConfig)ioSession.getConfig();
         this.m_socketSessionConfig.setKeepAlive(true);
+        this.m_channel = new IoSessionByteChannel(ioSession, in, out);
+        this.m_stats = new IoSessionStats(ioSession, in, out);
         }
 
     /**
@@ -89,13 +94,37 @@ public final class IoSessionSocket extends Socket
         }
 
     /**
-     * {@inheritDoc}
+     * Returns <code>null</code>, since there's no {@link SocketChannel} 
+     * behind the session.  Use {@link #getByteChannel()} for a channel view
+     * of the session.
+     * 
+     * @return <code>null</code>.
      */
     @Override
     public SocketChannel getChannel()
         {
-        m_log.warn("Not implemented!!!");
-        throw new NotYetImplementedException ();
+        return null;
+        }
+
+    /**
+     * Returns the traffic statistics for the session.
+     * 
+     * @return The statistics for the session.
+     */
+    public IoSessionStats getStats()
+        {
+        return this.m_stats;
+        }
+
+    /**
+     * Returns a blocking channel view of the session.  Reads and writes on 
+     * the channel share the socket's streams.
+     * 
+     * @return The channel for the session.
+     */
+    public IoSessionByteChannel getByteChannel()
+        {
+        return this.m_channel;
         }
 
     /**
@@ -232,8 +261,11 @@ public final class IoSessionSocket extends Socket
     @Override
     public int getSoTimeout() throws SocketException
         {
-        m_log.warn("Not implemented!!!");
-        throw new NotYetImplementedException("SO_TIMEOUT not implemented");
+        if (this.m_in instanceof IoSessionInputStream)
+            {
+            return ((IoSessionInputStream) this.m_in).getReadTimeout();
+            }
+        return this.m_soTimeout;
         }
 
     /**
@@ -383,7 +415,19 @@ public final class IoSessionSocket extends Socket
     @Override
     public void setSoTimeout(final int timeout) throws SocketException
         {
-        // Ignored since we don't know how to handle it for now.
+        if (timeout < 0)
+            {
+            throw new IllegalArgumentException("timeout can't be negative");
+            }
+        if (this.m_in instanceof IoSessionInputStream)
+            {
+            ((IoSessionInputStream) this.m_in).setReadTimeout(timeout);
+            }
+        else
+            {
+            // We can't enforce it on other streams, but remember it.
+            this.m_soTimeout = timeout;
+            }
         }
 
     /**
@@ -0,0 +1,24 @@
+package org.littleshoot.util.mina;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import org.littleshoot.mina.common.IoSession;
+
+/**
+ * Callback for handling {@link IoSession}s with blocking, socket-style code.
+ * 
+ * @see SocketIoHandler#setSocketHandler(IoSessionSocketHandler)
+ */
+public interface IoSessionSocketHandler
+    {
+
+    /**
+     * Handles a new socket.  This is called on a thread of its own and may
+     * block for as long as it likes.  The socket is closed when this returns.
+     * 
+     * @param socket The socket for the session.
+     * @throws IOException If any IO error occurs handling the socket.
+     */
+    void onSocket(Socket socket) throws IOException;
+    }
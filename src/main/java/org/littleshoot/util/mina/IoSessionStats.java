@@ -0,0 +1,116 @@
+package org.littleshoot.util.mina;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.littleshoot.mina.common.IoSession;
+
+/**
+ * Traffic statistics for a session, gathered from its streams.  Statistics
+ * that aren't tracked by the streams in use are reported as <tt>0</tt>.
+ */
+public final class IoSessionStats implements IoSessionStatsMBean
+    {
+
+    private final IoSession m_ioSession;
+    private final InputStream m_in;
+    private final OutputStream m_out;
+
+    /**
+     * Creates new statistics for the specified session.
+     * 
+     * @param ioSession The MINA {@link IoSession}.
+     * @param in The {@link InputStream} receiving data for the session.
+     * @param out The {@link OutputStream} for the session.
+     */
+    public IoSessionStats(final IoSession ioSession, final InputStream in, 
+        final OutputStream out)
+        {
+        this.m_ioSession = ioSession;
+        this.m_in = in;
+        this.m_out = out;
+        }
+
+    public String getRemoteAddress()
+        {
+        return String.valueOf(this.m_ioSession.getRemoteAddress());
+        }
+
+    public long getBytesReceived()
+        {
+        if (this.m_in instanceof IoSessionInputStream)
+            {
+            return ((IoSessionInputStream) this.m_in).getBytesReceived();
+            }
+        return 0;
+        }
+
+    public long getBytesRead()
+        {
+        if (this.m_in instanceof IoSessionInputStream)
+            {
+            return ((IoSessionInputStream) this.m_in).getBytesRead();
+            }
+        return 0;
+        }
+
+    public int getBufferedBytes()
+        {
+        if (this.m_in instanceof IoSessionInputStream)
+            {
+            return ((IoSessionInputStream) this.m_in).available();
+            }
+        return 0;
+        }
+
+    public long getReadWaitMillis()
+        {
+        if (this.m_in instanceof IoSessionInputStream)
+            {
+            return TimeUnit.NANOSECONDS.toMillis(
+                ((IoSessionInputStream) this.m_in).getReadWaitNanos());
+            }
+        return 0;
+        }
+
+    public long getBytesWritten()
+        {
+        if (this.m_out instanceof AbstractIoSessionOutputStream<?>)
+            {
+            return ((AbstractIoSessionOutputStream<?>) this.m_out)
+                .getBytesWritten();
+            }
+        return 0;
+        }
+
+    public long getOutstandingBytes()
+        {
+        if (this.m_out instanceof AbstractIoSessionOutputStream<?>)
+            {
+            return ((AbstractIoSessionOutputStream<?>) this.m_out)
+                .getOutstandingBytes();
+            }
+        return 0;
+        }
+
+    public long getWriteWaitMillis()
+        {
+        if (this.m_out instanceof AbstractIoSessionOutputStream<?>)
+            {
+            return TimeUnit.NANOSECONDS.toMillis(
+                ((AbstractIoSessionOutputStream<?>) this.m_out)
+                    .getWriteWaitNanos());
+            }
+        return 0;
+        }
+
+    @Override
+    public String toString()
+        {
+        return getClass().getSimpleName()+" for "+getRemoteAddress()+
+            " in: "+getBytesReceived()+" read: "+getBytesRead()+
+            " buffered: "+getBufferedBytes()+" out: "+getBytesWritten()+
+            " outstanding: "+getOutstandingBytes();
+        }
+    }
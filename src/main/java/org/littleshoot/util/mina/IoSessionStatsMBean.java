@@ -0,0 +1,66 @@
+package org.littleshoot.util.mina;
+
+/**
+ * JMX interface for the traffic statistics of a single session.
+ */
+public interface IoSessionStatsMBean
+    {
+
+    /**
+     * Returns the remote address of the session.
+     * 
+     * @return The remote address.
+     */
+    String getRemoteAddress();
+
+    /**
+     * Returns the number of bytes received from the session.
+     * 
+     * @return The number of bytes received.
+     */
+    long getBytesReceived();
+
+    /**
+     * Returns the number of received bytes that have been read.
+     * 
+     * @return The number of bytes read.
+     */
+    long getBytesRead();
+
+    /**
+     * Returns the number of received bytes waiting to be read.  A value that
+     * keeps growing points to a slow reader.
+     * 
+     * @return The number of buffered bytes.
+     */
+    int getBufferedBytes();
+
+    /**
+     * Returns the time readers have spent waiting for data.
+     * 
+     * @return The time spent waiting for data in milliseconds.
+     */
+    long getReadWaitMillis();
+
+    /**
+     * Returns the number of bytes written to the session.
+     * 
+     * @return The number of bytes written.
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the number of written bytes the session hasn't sent yet.
+     * 
+     * @return The number of outstanding bytes.
+     */
+    long getOutstandingBytes();
+
+    /**
+     * Returns the time writers have spent waiting for the session to write 
+     * their data.  A value that keeps growing points to a slow peer.
+     * 
+     * @return The time spent waiting for writes in milliseconds.
+     */
+    long getWriteWaitMillis();
+    }
@@ -0,0 +1,283 @@
+package org.littleshoot.util.mina;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * A fixed table of ASCII keywords, such as method names or header names,
+ * that recognizes them straight from decoded bytes.  Decoding states can
+ * look up a token here instead of creating a new <code>String</code> for
+ * it with {@link MinaUtils#getString(ByteBuffer)}, so known tokens don't
+ * allocate at all.<p>
+ *
+ * The table uses a perfect hash found when it's created -- every keyword
+ * has its own slot, so a lookup hashes the bytes once and compares them
+ * with at most one keyword.  Tables are immutable and thread safe.
+ *
+ * @param <T> The type of the values the keywords map to.
+ */
+public final class KeywordTable<T>
+    {
+
+    /**
+     * The number of multipliers to try at each table size before trying a
+     * bigger table.
+     */
+    private static final int ATTEMPTS_PER_SIZE = 1000;
+
+    private final boolean m_ignoreCase;
+
+    private final byte[][] m_keys;
+
+    private final String[] m_keywords;
+
+    private final Object[] m_values;
+
+    private final int m_mask;
+
+    private final int m_multiplier;
+
+    private final int m_size;
+
+    /**
+     * Creates a table for the specified strings, with each keyword mapping
+     * to the string itself.
+     *
+     * @param keywords The keywords.
+     * @param ignoreCase Whether tokens should match keywords regardless of
+     * the case of ASCII letters.
+     * @return The table.
+     */
+    public static KeywordTable<String> forStrings(
+        final Collection<String> keywords, final boolean ignoreCase)
+        {
+        final Map<String, String> map = new LinkedHashMap<String, String>();
+        for (final String keyword : keywords)
+            {
+            map.put(keyword, keyword);
+            }
+        return new KeywordTable<String>(map, ignoreCase);
+        }
+
+    /**
+     * Creates a table for the constants of the specified enum, with the
+     * name of each constant as its keyword.
+     *
+     * @param <E> The type of the enum.
+     * @param type The class of the enum.
+     * @param ignoreCase Whether tokens should match keywords regardless of
+     * the case of ASCII letters.
+     * @return The table.
+     */
+    public static <E extends Enum<E>> KeywordTable<E> forEnum(
+        final Class<E> type, final boolean ignoreCase)
+        {
+        final Map<String, E> map = new LinkedHashMap<String, E>();
+        for (final E constant : EnumSet.allOf(type))
+            {
+            map.put(constant.name(), constant);
+            }
+        return new KeywordTable<E>(map, ignoreCase);
+        }
+
+    /**
+     * Creates a new table.
+     *
+     * @param keywords The keywords and the values they map to.  Keywords
+     * must be ASCII.
+     * @param ignoreCase Whether tokens should match keywords regardless of
+     * the case of ASCII letters.
+     */
+    public KeywordTable(final Map<String, T> keywords,
+        final boolean ignoreCase)
+        {
+        m_ignoreCase = ignoreCase;
+        final List<byte[]> keys = new ArrayList<byte[]>(keywords.size());
+        final Set<String> distinct = new HashSet<String>();
+        for (final String keyword : keywords.keySet())
+            {
+            if (!distinct.add(ignoreCase ? 
+                keyword.toLowerCase(Locale.US) : keyword))
+                {
+                throw new IllegalArgumentException(
+                    "Duplicate keyword: "+keyword);
+                }
+            final byte[] key = MinaCodecUtils.getAsciiBytes(keyword);
+            for (final byte b : key)
+                {
+                if (b < 0)
+                    {
+                    throw new IllegalArgumentException(
+                        "Not an ASCII keyword: "+keyword);
+                    }
+                }
+            keys.add(key);
+            }
+
+        int size = Integer.highestOneBit(Math.max(1, keys.size()) * 2 - 1) * 2;
+        int multiplier = 0;
+        int[] slots = null;
+        while (slots == null)
+            {
+            for (int i = 0; i < ATTEMPTS_PER_SIZE && slots == null; i++)
+                {
+                multiplier = 31 + 2 * i;
+                slots = assignSlots(keys, size - 1, multiplier);
+                }
+            if (slots == null)
+                {
+                if (size >= (1 << 20))
+                    {
+                    throw new IllegalArgumentException(
+                        "No perfect hash for: "+keywords.keySet());
+                    }
+                size *= 2;
+                }
+            }
+        m_size = keys.size();
+        m_mask = size - 1;
+        m_multiplier = multiplier;
+        m_keys = new byte[size][];
+        m_keywords = new String[size];
+        m_values = new Object[size];
+        int i = 0;
+        for (final Map.Entry<String, T> entry : keywords.entrySet())
+            {
+            m_keys[slots[i]] = keys.get(i);
+            m_keywords[slots[i]] = entry.getKey();
+            m_values[slots[i]] = entry.getValue();
+            i++;
+            }
+        }
+
+    /**
+     * Returns the slot for each key, or <code>null</code> if two keys hash
+     * to the same slot.
+     */
+    private int[] assignSlots(final List<byte[]> keys, final int mask,
+        final int multiplier)
+        {
+        final boolean[] used = new boolean[mask + 1];
+        final int[] slots = new int[keys.size()];
+        for (int i = 0; i < slots.length; i++)
+            {
+            final byte[] key = keys.get(i);
+            int h = 0;
+            for (final byte b : key)
+                {
+                h = h * multiplier + fold(b);
+                }
+            final int slot = mix(h) & mask;
+            if (used[slot])
+                {
+                return null;
+                }
+            used[slot] = true;
+            slots[i] = slot;
+            }
+        return slots;
+        }
+
+    /**
+     * Returns the value for the keyword between the position and the limit
+     * of the specified buffer.  The position and limit aren't changed.
+     *
+     * @param buf The buffer.
+     * @return The value, or <code>null</code> if the bytes aren't a keyword.
+     */
+    public T get(final ByteBuffer buf)
+        {
+        return get(buf, buf.position(), buf.limit());
+        }
+
+    /**
+     * Returns the value for the keyword between the specified indexes of
+     * the specified buffer.
+     *
+     * @param buf The buffer.
+     * @param from The index of the first byte, inclusive.
+     * @param to The index of the last byte, exclusive.
+     * @return The value, or <code>null</code> if the bytes aren't a keyword.
+     */
+    @SuppressWarnings("unchecked")
+    public T get(final ByteBuffer buf, final int from, final int to)
+        {
+        final int slot = slot(buf, from, to);
+        return slot < 0 ? null : (T) m_values[slot];
+        }
+
+    /**
+     * Returns the keyword between the position and the limit of the
+     * specified buffer, or decodes the bytes as an ASCII string if they're
+     * not a keyword.  Keywords are returned as the same instance every
+     * time.  The position and limit aren't changed.
+     *
+     * @param buf The buffer.
+     * @return The keyword or the decoded string.
+     */
+    public String decode(final ByteBuffer buf)
+        {
+        final int slot = slot(buf, buf.position(), buf.limit());
+        if (slot < 0)
+            {
+            return MinaUtils.toAsciiString(buf);
+            }
+        return m_keywords[slot];
+        }
+
+    /**
+     * Returns the number of keywords.
+     *
+     * @return The number of keywords.
+     */
+    public int size()
+        {
+        return m_size;
+        }
+
+    private int slot(final ByteBuffer buf, final int from, final int to)
+        {
+        int h = 0;
+        for (int i = from; i < to; i++)
+            {
+            h = h * m_multiplier + fold(buf.get(i));
+            }
+        final int slot = mix(h) & m_mask;
+        final byte[] key = m_keys[slot];
+        if (key == null || key.length != to - from)
+            {
+            return -1;
+            }
+        for (int i = 0; i < key.length; i++)
+            {
+            if (fold(buf.get(from + i)) != fold(key[i]))
+                {
+                return -1;
+                }
+            }
+        return slot;
+        }
+
+    private int fold(final byte b)
+        {
+        if (m_ignoreCase && b >= 'A' && b <= 'Z')
+            {
+            return b | 0x20;
+            }
+        return b;
+        }
+
+    private static int mix(final int h)
+        {
+        return h ^ (h >>> 16);
+        }
+    }
@@ -16,6 +16,8 @@
 package org.littleshoot.util.mina;
 
 import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.littleshoot.mina.common.ByteBuffer;
 
@@ -113,14 +115,86 @@ public class MinaCodecUtils
     private static final String US_ASCII_CHARSET_NAME = "US-ASCII";
 
     /**
-     * A lookup table for HTPP separator characters
+     * The largest string encoded in one pass by 
+     * {@link #appendString(ByteBuffer, String)}.  Longer strings are 
+     * encoded in pieces of this size.
      */
-    private static boolean[] HTTP_SEPARATORS = new boolean[128];
+    private static final int MAX_SCRATCH_SIZE = 8 * 1024;
 
     /**
-     * A lookup table for HTTP control characters
+     * Scratch space for encoding strings, so they can be written with a 
+     * single bulk put.
      */
-    private static boolean[] HTTP_CONTROLS = new boolean[128];
+    private static final ThreadLocal<byte[]> SCRATCH = 
+        new ThreadLocal<byte[]>()
+        {
+        @Override
+        protected byte[] initialValue()
+            {
+            return new byte[256];
+            }
+        };
+
+    /**
+     * The maximum number of tokens to keep encoded.  Once the cache is full
+     * other tokens are encoded each time they're written.
+     */
+    private static final int MAX_CACHED_TOKENS = 512;
+
+    /**
+     * The longest token that's cached.
+     */
+    private static final int MAX_CACHED_TOKEN_LENGTH = 128;
+
+    /**
+     * Encoded forms of tokens written with 
+     * {@link #appendToken(ByteBuffer, String)}.
+     */
+    private static final ConcurrentMap<String, byte[]> TOKENS =
+        new ConcurrentHashMap<String, byte[]>();
+
+    // TODO: SP, HT 
+    /**
+     * HTTP separator characters.
+     */
+    public static final ByteClass HTTP_SEPARATORS = 
+        ByteClass.of("\"(),/:;<=>?@[]\\{}");
+
+    /**
+     * HTTP control characters.
+     */
+    public static final ByteClass HTTP_CONTROLS = 
+        ByteClass.range(0, 31).or(ByteClass.of((byte) 127));
+
+    /**
+     * HTTP whitespace characters: space and horizontal tab.
+     */
+    public static final ByteClass HTTP_WHITESPACE = ByteClass.of(SPACE, HT);
+
+    /**
+     * Linear whitespace characters, including the line breaks of folded
+     * header values.
+     */
+    public static final ByteClass HTTP_LWS = ByteClass.of(SPACE, HT, CR, LF);
+
+    /**
+     * Characters allowed in an HTTP token, such as a method or header name.
+     */
+    public static final ByteClass HTTP_TOKEN = ByteClass.range(33, 126)
+        .andNot(HTTP_SEPARATORS).andNot(ByteClass.of(SPACE, HT));
+
+    /**
+     * Characters allowed unescaped within an HTTP quoted string: anything
+     * but controls other than tab, the quote and the backslash.
+     */
+    public static final ByteClass HTTP_QUOTED_TEXT = 
+        HTTP_CONTROLS.not().or(ByteClass.of(HT)).andNot(
+            ByteClass.of(QUOTE, BACK_SLASH));
+
+    /**
+     * ASCII decimal digits.
+     */
+    public static final ByteClass DIGITS = ByteClass.range('0', '9');
 
     /**
      * A lookup table from ASCII char values to corresponding decimal values
@@ -158,7 +232,7 @@ public class MinaCodecUtils
      */
     public static boolean isHex(byte b)
         {
-        return HEX_DEC[b] != -1;
+        return HEX_DEC[b & 0xFF] != -1;
         }
 
     /**
@@ -170,7 +244,7 @@ public class MinaCodecUtils
      */
     public static boolean isHttpSeparator(byte b)
         {
-        return HTTP_SEPARATORS[b];
+        return HTTP_SEPARATORS.contains(b);
         }
 
     /**
@@ -183,7 +257,7 @@ public class MinaCodecUtils
      */
     public static boolean isHttpControl(byte b)
         {
-        return HTTP_CONTROLS[b];
+        return HTTP_CONTROLS.contains(b);
         }
 
     /**
@@ -222,7 +296,147 @@ public class MinaCodecUtils
      */
     public static int hexAsciiToDecimal(final byte b)
         {
-        return HEX_DEC[b];
+        return HEX_DEC[b & 0xFF];
+        }
+
+    /**
+     * Parses the ASCII decimal number between the position and the limit of
+     * the specified buffer, such as a <code>Content-Length</code> value.  
+     * The position and limit aren't changed.
+     * 
+     * @param buffer The buffer
+     * @return The number, or <code>-1</code> if the bytes aren't all 
+     *         decimal digits or the number is larger than 
+     *         {@link Long#MAX_VALUE}
+     */
+    public static long parseDecimal(final ByteBuffer buffer)
+        {
+        return parseDecimal(buffer, buffer.position(), buffer.limit());
+        }
+
+    /**
+     * Parses the ASCII decimal number between the specified indexes of the
+     * specified buffer.
+     * 
+     * @param buffer The buffer
+     * @param from The index of the first digit, inclusive
+     * @param to The index after the last digit
+     * @return The number, or <code>-1</code> if the range is empty, the 
+     *         bytes aren't all decimal digits or the number is larger than 
+     *         {@link Long#MAX_VALUE}
+     */
+    public static long parseDecimal(final ByteBuffer buffer, final int from,
+        final int to)
+        {
+        if (from >= to)
+            {
+            return -1;
+            }
+        long value = 0;
+        for (int i = from; i < to; i++)
+            {
+            final int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9)
+                {
+                return -1;
+                }
+            if (value > (Long.MAX_VALUE - digit) / 10)
+                {
+                return -1;
+                }
+            value = value * 10 + digit;
+            }
+        return value;
+        }
+
+    /**
+     * Parses the ASCII hex number between the position and the limit of 
+     * the specified buffer, such as a chunk size.  The position and limit 
+     * aren't changed.
+     * 
+     * @param buffer The buffer
+     * @return The number, or <code>-1</code> if the bytes aren't all hex 
+     *         digits or the number is larger than {@link Long#MAX_VALUE}
+     */
+    public static long parseHex(final ByteBuffer buffer)
+        {
+        return parseHex(buffer, buffer.position(), buffer.limit());
+        }
+
+    /**
+     * Parses the ASCII hex number between the specified indexes of the
+     * specified buffer.  Upper and lower case digits are accepted.
+     * 
+     * @param buffer The buffer
+     * @param from The index of the first digit, inclusive
+     * @param to The index after the last digit
+     * @return The number, or <code>-1</code> if the range is empty, the 
+     *         bytes aren't all hex digits or the number is larger than 
+     *         {@link Long#MAX_VALUE}
+     */
+    public static long parseHex(final ByteBuffer buffer, final int from,
+        final int to)
+        {
+        if (from >= to)
+            {
+            return -1;
+            }
+        long value = 0;
+        for (int i = from; i < to; i++)
+            {
+            final int digit = HEX_DEC[buffer.get(i) & 0xFF];
+            if (digit == -1)
+                {
+                return -1;
+                }
+            if (value > (Long.MAX_VALUE >>> 4))
+                {
+                return -1;
+                }
+            value = (value << 4) | digit;
+            }
+        return value;
+        }
+
+    /**
+     * Appends the ASCII decimal form of the specified number to the 
+     * specified buffer, as {@link Integer#toString(int)} would write it.
+     * 
+     * @param buffer The buffer to append to
+     * @param value The number
+     */
+    public static void putAsciiInt(final ByteBuffer buffer, final int value)
+        {
+        putAsciiLong(buffer, value);
+        }
+
+    /**
+     * Appends the ASCII decimal form of the specified number to the 
+     * specified buffer, as {@link Long#toString(long)} would write it.
+     * 
+     * @param buffer The buffer to append to
+     * @param value The number
+     */
+    public static void putAsciiLong(final ByteBuffer buffer, final long value)
+        {
+        // Digits are written from the end of the scratch array.  Working 
+        // with the negative value means Long.MIN_VALUE needs no special 
+        // case.
+        final byte[] scratch = scratch(20);
+        int start = 20;
+        long remaining = value > 0 ? -value : value;
+        do
+            {
+            final long quotient = remaining / 10;
+            scratch[--start] = (byte) ('0' + (quotient * 10 - remaining));
+            remaining = quotient;
+            }
+        while (remaining != 0);
+        if (value < 0)
+            {
+            scratch[--start] = '-';
+            }
+        buffer.put(scratch, start, 20 - start);
         }
 
     /**
@@ -263,59 +477,108 @@ public class MinaCodecUtils
             {
             return;
             }
-        int len = string.length();
+        final int len = string.length();
+        if (len == 0)
+            {
+            return;
+            }
+        final byte[] scratch = scratch(len);
+        for (int start = 0; start < len; start += scratch.length)
+            {
+            final int end = Math.min(len, start + scratch.length);
+            encode(string, start, end, scratch);
+            buffer.put(scratch, 0, end - start);
+            }
+        }
 
-        for (int i = 0; i < len; i++)
+    /**
+     * Appends a string that's written often, such as a header name like 
+     * "Content-Length: ", to the specified buffer.  The string is encoded
+     * as in {@link #appendString(ByteBuffer, String)}, but the encoded bytes
+     * are cached so later calls just copy them.  Only use this for a 
+     * limited set of strings -- values that vary should be written with
+     * {@link #appendString(ByteBuffer, String)}.
+     * 
+     * @param buffer The buffer to append to
+     * @param token The string to append
+     */
+    public static void appendToken(final ByteBuffer buffer, 
+        final String token)
+        {
+        if (token == null)
             {
-            byte b = (byte) string.charAt(i);
-            if (isHttpControl(b) && b != HT)
+            return;
+            }
+        byte[] bytes = TOKENS.get(token);
+        if (bytes == null)
+            {
+            if (token.length() > MAX_CACHED_TOKEN_LENGTH ||
+                TOKENS.size() >= MAX_CACHED_TOKENS)
+                {
+                appendString(buffer, token);
+                return;
+                }
+            bytes = new byte[token.length()];
+            encode(token, 0, token.length(), bytes);
+            final byte[] existing = TOKENS.putIfAbsent(token, bytes);
+            if (existing != null)
                 {
-                b = SPACE;
+                bytes = existing;
                 }
-            buffer.put(b);
             }
+        buffer.put(bytes);
         }
 
     /**
-     * Appends a <code>CR LF</code> to the specified buffer
-     * 
-     * @param buffer
-     *            The buffer
+     * Encodes the specified characters of a string into an array, keeping
+     * the low byte of each character and replacing control characters other
+     * than tabs with spaces.
      */
-    public static void appendCRLF(ByteBuffer buffer)
+    private static void encode(final String string, final int start, 
+        final int end, final byte[] dst)
         {
-        buffer.put(CRLF_BYTES);
+        getLowBytes(string, start, end, dst);
+        final int length = end - start;
+        for (int i = 0; i < length; i++)
+            {
+            if (HTTP_CONTROLS.contains(dst[i]) && dst[i] != HT)
+                {
+                dst[i] = SPACE;
+                }
+            }
+        }
+
+    @SuppressWarnings("deprecation")
+    private static void getLowBytes(final String string, final int start,
+        final int end, final byte[] dst)
+        {
+        // This is the deprecated method that discards the high byte of each
+        // character, which is exactly the encoding we want.
+        string.getBytes(start, end, dst, 0);
         }
 
-    static
+    private static byte[] scratch(final int length)
         {
-        // HTTP Separator characters
-        HTTP_SEPARATORS[34] = true; // "
-        HTTP_SEPARATORS[40] = true; // )
-        HTTP_SEPARATORS[41] = true; // (
-        HTTP_SEPARATORS[44] = true; // ,
-        HTTP_SEPARATORS[47] = true; // /
-        HTTP_SEPARATORS[58] = true; // :
-        HTTP_SEPARATORS[59] = true; // ;
-        HTTP_SEPARATORS[60] = true; // <
-        HTTP_SEPARATORS[61] = true; // =
-        HTTP_SEPARATORS[62] = true; // >
-        HTTP_SEPARATORS[63] = true; // ?
-        HTTP_SEPARATORS[64] = true; // @
-        HTTP_SEPARATORS[91] = true; // [
-        HTTP_SEPARATORS[93] = true; // ]
-        HTTP_SEPARATORS[92] = true; // \
-        HTTP_SEPARATORS[123] = true; // {
-        HTTP_SEPARATORS[125] = true; // }
-        // TODO: SP, HT 
-
-        // HTTP Control characters
-        for (int i = 0; i <= 31; ++i)
+        final byte[] scratch = SCRATCH.get();
+        if (scratch.length >= length || scratch.length >= MAX_SCRATCH_SIZE)
             {
-            HTTP_CONTROLS[i] = true;
+            return scratch;
             }
-        HTTP_CONTROLS[127] = true; // DEL
+        final byte[] larger = new byte[Math.min(MAX_SCRATCH_SIZE, 
+            Math.max(length, scratch.length * 2))];
+        SCRATCH.set(larger);
+        return larger;
+        }
 
+    /**
+     * Appends a <code>CR LF</code> to the specified buffer
+     * 
+     * @param buffer
+     *            The buffer
+     */
+    public static void appendCRLF(ByteBuffer buffer)
+        {
+        buffer.put(CRLF_BYTES);
         }
 
     }
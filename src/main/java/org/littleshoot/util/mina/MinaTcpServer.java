@@ -5,11 +5,9 @@ import java.net.InetSocketAddress;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
-import org.littleshoot.mina.common.ByteBuffer;
 import org.littleshoot.mina.common.DefaultIoFilterChainBuilder;
 import org.littleshoot.mina.common.IoHandler;
 import org.littleshoot.mina.common.IoServiceListener;
-import org.littleshoot.mina.common.SimpleByteBufferAllocator;
 import org.littleshoot.mina.common.ThreadModel;
 import org.littleshoot.mina.filter.codec.ProtocolCodecFactory;
 import org.littleshoot.mina.filter.codec.ProtocolCodecFilter;
@@ -22,7 +20,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A MINA TCP server.
+ * A MINA TCP server.  Creating one doesn't change MINA's JVM-wide buffer
+ * settings: where the buffers for its sessions live comes from the 
+ * server's {@link BufferStrategy}, and pooling them takes an explicit call
+ * to {@link SizeClassByteBufferAllocator#install()}.
  */
 public class MinaTcpServer implements MinaServer
     {
@@ -58,13 +59,35 @@ public class MinaTcpServer implements MinaServer
         final IoServiceListener ioServiceListener, final IoHandler handler,
         final String baseThreadName)
         {
+        this(codecFactory, ioServiceListener, handler, baseThreadName, 
+            BufferStrategy.HEAP);
+        }
+
+    /**
+     * Creates a new MINA TCP server.
+     * 
+     * @param codecFactory The codec factory to use with the acceptor.
+     * @param ioServiceListener The listener for IO service events.
+     * @param handler The {@link IoHandler} for processing incoming data.
+     * @param baseThreadName The base name that will be used for threads
+     * processing data arriving on the server.
+     * @param bufferStrategy The strategy for buffers allocated for the 
+     * server's sessions.  This doesn't affect other servers or the JVM-wide
+     * defaults.
+     */
+    public MinaTcpServer(final ProtocolCodecFactory codecFactory, 
+        final IoServiceListener ioServiceListener, final IoHandler handler,
+        final String baseThreadName, final BufferStrategy bufferStrategy)
+        {
         if (ioServiceListener == null)
             {
             m_log.error("No IO Service Listener");
             throw new NullPointerException("Null listener");
             }
-        ByteBuffer.setUseDirectBuffers(false);
-        ByteBuffer.setAllocator(new SimpleByteBufferAllocator());
+        if (bufferStrategy == null)
+            {
+            throw new NullPointerException("Null buffer strategy");
+            }
         m_handler = handler;
         final Executor executor = Executors.newCachedThreadPool(
             new DaemonThreadFactory(baseThreadName+"-Mina-TCP-Server"));
@@ -84,6 +107,8 @@ public class MinaTcpServer implements MinaServer
 
         final DefaultIoFilterChainBuilder filterChainBuilder = 
             cfg.getFilterChain();
+        filterChainBuilder.addFirst("bufferStrategy", 
+            bufferStrategy.newFilter());
         final ProtocolCodecFilter codecFilter = 
             new ProtocolCodecFilter(codecFactory);
         filterChainBuilder.addLast("codec", codecFilter);
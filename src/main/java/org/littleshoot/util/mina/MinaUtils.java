@@ -1,9 +1,6 @@
 package org.littleshoot.util.mina;
 
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.CharacterCodingException;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
 import java.util.Collection;
 import java.util.LinkedList;
 
@@ -21,8 +18,21 @@ public class MinaUtils
     
     private static final Logger LOG = LoggerFactory.getLogger(MinaUtils.class);
     
-    private static final CharsetDecoder DECODER =
-        Charset.forName("US-ASCII").newDecoder();
+    /**
+     * The largest scratch array each thread keeps for decoding strings from
+     * buffers without backing arrays.
+     */
+    private static final int MAX_SCRATCH_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<byte[]> SCRATCH = 
+        new ThreadLocal<byte[]>()
+        {
+        @Override
+        protected byte[] initialValue()
+            {
+            return new byte[256];
+            }
+        };
 
     /**
      * Useful for debugging.  Turns the given buffer into an ASCII string.  
@@ -34,17 +44,11 @@ public class MinaUtils
      */
     public static String toAsciiString(final ByteBuffer buf)
         {
-        DECODER.reset();
         final int position = buf.position();
         final int limit = buf.limit();
         try
             {
-            return buf.getString(DECODER);
-            }
-        catch (final CharacterCodingException e)
-            {
-            LOG.error("Could not decode: "+buf, e);
-            return StringUtils.EMPTY;
+            return getString(buf);
             }
         finally
             {
@@ -55,23 +59,110 @@ public class MinaUtils
     
     /**
      * Reads an ASCII string from the buffer.  Reads from the buffer's current
-     * position to its limit.
+     * position to its limit, or up to and including the first NUL byte, 
+     * like {@link ByteBuffer#getString(java.nio.charset.CharsetDecoder)}.  
+     * If the bytes aren't ASCII this returns an empty string and leaves the
+     * position where it was.<p>
+     * 
+     * This is safe to call from any thread, and copies bytes straight from 
+     * the buffer's backing array when it has one.
      * 
      * @param buf The buffer to read from.
      * @return The bytes converted to an ASCII string.
      */
     public static String getString(final ByteBuffer buf)
         {
-        DECODER.reset();
-        try
+        final int position = buf.position();
+        final int limit = buf.limit();
+        final int end;
+        final java.nio.ByteBuffer nio = buf.buf();
+        if (nio.hasArray())
             {
-            return buf.getString(DECODER);
+            final byte[] array = nio.array();
+            final int offset = nio.arrayOffset();
+            end = asciiEnd(array, offset + position, offset + limit) - offset;
+            if (end < 0)
+                {
+                LOG.error("Could not decode: "+buf);
+                return StringUtils.EMPTY;
+                }
+            skipString(buf, end, limit);
+            return newAsciiString(array, offset + position, end - position);
             }
-        catch (final CharacterCodingException e)
+
+        end = asciiEnd(buf, position, limit);
+        if (end < 0)
             {
-            LOG.error("Could not decode: "+buf, e);
+            LOG.error("Could not decode: "+buf);
             return StringUtils.EMPTY;
             }
+        final int length = end - position;
+        byte[] scratch = SCRATCH.get();
+        if (scratch.length < length)
+            {
+            scratch = new byte[length];
+            if (length <= MAX_SCRATCH_SIZE)
+                {
+                SCRATCH.set(scratch);
+                }
+            }
+        buf.get(scratch, 0, length);
+        skipString(buf, end, limit);
+        return newAsciiString(scratch, 0, length);
+        }
+
+    /**
+     * Returns the end of the string starting at the specified index -- the 
+     * index of the first NUL byte or the end index -- or <tt>-1</tt> if 
+     * there's a non-ASCII byte before then.
+     */
+    private static int asciiEnd(final byte[] array, final int start, 
+        final int end)
+        {
+        for (int i = start; i < end; i++)
+            {
+            final byte b = array[i];
+            if (b <= 0)
+                {
+                return b == 0 ? i : -1;
+                }
+            }
+        return end;
+        }
+
+    private static int asciiEnd(final ByteBuffer buf, final int start, 
+        final int end)
+        {
+        for (int i = start; i < end; i++)
+            {
+            final byte b = buf.get(i);
+            if (b <= 0)
+                {
+                return b == 0 ? i : -1;
+                }
+            }
+        return end;
+        }
+
+    /**
+     * Moves the position past the string ending at the specified index and
+     * its NUL terminator, if any.
+     */
+    private static void skipString(final ByteBuffer buf, final int end, 
+        final int limit)
+        {
+        buf.position(end < limit ? end + 1 : end);
+        }
+
+    /**
+     * Creates a string from ASCII bytes without going through a charset
+     * decoder.
+     */
+    @SuppressWarnings("deprecation")
+    private static String newAsciiString(final byte[] bytes, final int offset,
+        final int length)
+        {
+        return new String(bytes, 0, offset, length);
         }
 
     /**
@@ -100,6 +191,7 @@ public class MinaUtils
      * @return A <code>Collection</code> of <code>ByteBuffer</code>s of the
      * specified size.  The final buffer in the <code>Collection</code> will
      * have a size > 0 and <= the chunk size.
+     * @see ByteBufferUtils#splitToSlices(ByteBuffer, int)
      */
     public static Collection<ByteBuffer> split(final ByteBuffer buffer, 
         final int chunkSize)
@@ -121,6 +213,27 @@ public class MinaUtils
         return buffers;
         }
     
+    /**
+     * Splits the specified <code>ByteBuffer</code> into smaller 
+     * <code>ByteBuffer</code>s of the specified size like 
+     * {@link #split(ByteBuffer, int)}, but with slices that share the 
+     * buffer's content instead of copies.  Unlike {@link #split(ByteBuffer, int)},
+     * this doesn't change the buffer's position.  Each slice holds a 
+     * reference to the buffer's memory and should be released -- or written
+     * to a session -- once it's no longer needed.
+     * 
+     * @param buffer The <code>ByteBuffer</code> to split.
+     * @param chunkSize The size of the slices to create.
+     * @return The slices, in order.  The final slice will have a size > 0 
+     * and <= the chunk size.
+     * @see ByteBufferUtils#splitToSlices(ByteBuffer, int)
+     */
+    public static Collection<ByteBuffer> splitToSlices(final ByteBuffer buffer,
+        final int chunkSize)
+        {
+        return ByteBufferUtils.splitToSlices(buffer, chunkSize);
+        }
+    
     private static ByteBuffer createBuffer(final ByteBuffer buffer)
         {
         // We calculate this here because the final split buffer will not
@@ -147,6 +260,7 @@ public class MinaUtils
      * @return A <code>Collection</code> of <code>ByteBuffer</code>s of the
      * specified size.  The final buffer in the <code>Collection</code> will
      * have a size > 0 and <= the chunk size.
+     * @see ByteBufferUtils#chunks(ByteBuffer, int)
      */
     public static Collection<byte[]> splitToByteArrays(final ByteBuffer buffer, 
         final int chunkSize)
@@ -0,0 +1,19 @@
+package org.littleshoot.util.mina;
+
+/**
+ * A decoding state that can hold on to input buffers between calls to
+ * {@link #decode(org.littleshoot.mina.common.ByteBuffer, 
+ * org.littleshoot.mina.filter.codec.ProtocolDecoderOutput)}, such as the 
+ * pieces of a token that's still arriving.  The decoders release the 
+ * current state when a session is disposed of or decoding fails, so the
+ * buffers, and any pooled memory behind them, aren't held forever.
+ */
+public interface ReleasableDecodingState extends DecodingState
+    {
+
+    /**
+     * Releases any input buffers held for a partly decoded token and 
+     * discards the token, so the state starts afresh if it's used again.
+     */
+    void release();
+    }
@@ -0,0 +1,137 @@
+package org.littleshoot.util.mina;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Collects the pieces of a token that arrives over several reads, for the
+ * decoding states.  Pieces aren't copied as they arrive -- the list
+ * acquires each input buffer, so MINA can't recycle it once it's decoded,
+ * and keeps a view of the bytes added from it.  The pieces are copied
+ * once, into a single buffer, when the token is complete, and the input
+ * buffers are released then, or when the list is released without 
+ * taking them.
+ */
+final class SegmentList
+    {
+
+    private final List<java.nio.ByteBuffer> m_segments =
+        new ArrayList<java.nio.ByteBuffer>(4);
+
+    /**
+     * The buffers acquired for the segments, released when they're taken.
+     */
+    private final List<ByteBuffer> m_sources = new ArrayList<ByteBuffer>(4);
+
+    private int m_length;
+
+    /**
+     * Adds the remaining bytes of the specified buffer, moving its position
+     * to its limit.  The buffer is acquired until the bytes are taken.
+     *
+     * @param in The buffer to add from.
+     */
+    void add(final ByteBuffer in)
+        {
+        final int length = in.remaining();
+        if (length == 0)
+            {
+            return;
+            }
+        in.acquire();
+        m_sources.add(in);
+        m_segments.add(in.buf().slice());
+        in.position(in.limit());
+        m_length += length;
+        }
+
+    /**
+     * Adds a single byte.
+     *
+     * @param b The byte.
+     */
+    void add(final byte b)
+        {
+        m_segments.add(java.nio.ByteBuffer.wrap(new byte[] {b}));
+        m_length++;
+        }
+
+    /**
+     * Returns the number of bytes collected.
+     *
+     * @return The number of bytes.
+     */
+    int length()
+        {
+        return m_length;
+        }
+
+    boolean isEmpty()
+        {
+        return m_length == 0;
+        }
+
+    /**
+     * Returns a collected byte.
+     *
+     * @param index The index of the byte among all collected bytes.
+     * @return The byte.
+     */
+    byte get(final int index)
+        {
+        int start = m_length;
+        for (int i = m_segments.size() - 1; i >= 0; i--)
+            {
+            final java.nio.ByteBuffer segment = m_segments.get(i);
+            start -= segment.limit();
+            if (index >= start)
+                {
+                return segment.get(index - start);
+                }
+            }
+        throw new IndexOutOfBoundsException("Bad index: "+index);
+        }
+
+    /**
+     * Copies the collected bytes and the remaining bytes of the specified
+     * buffer into one buffer, releases the buffers they were collected
+     * from, and empties the list.  The position of the specified buffer is
+     * moved to its limit.
+     *
+     * @param last The final piece, or <code>null</code> if there is none.
+     * @return A buffer of all the bytes, ready for reading.
+     */
+    ByteBuffer take(final ByteBuffer last)
+        {
+        final int lastLength = last == null ? 0 : last.remaining();
+        final ByteBuffer product = ByteBuffer.allocate(m_length + lastLength);
+        for (final java.nio.ByteBuffer segment : m_segments)
+            {
+            product.put(segment);
+            }
+        if (last != null)
+            {
+            product.put(last);
+            }
+        product.flip();
+        release();
+        return product;
+        }
+
+    /**
+     * Releases the buffers the bytes were collected from and empties the
+     * list, discarding the bytes.
+     */
+    void release()
+        {
+        for (final ByteBuffer source : m_sources)
+            {
+            source.release();
+            }
+        m_segments.clear();
+        m_sources.clear();
+        m_length = 0;
+        }
+    }
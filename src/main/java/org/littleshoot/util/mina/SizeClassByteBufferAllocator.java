@@ -0,0 +1,625 @@
+package org.littleshoot.util.mina;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteOrder;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.littleshoot.mina.common.BaseByteBuffer;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.ByteBufferAllocator;
+
+/**
+ * A {@link ByteBufferAllocator} that recycles the memory of released
+ * buffers.<p>
+ *
+ * Memory comes in power-of-two size classes.  Each thread -- typically a
+ * MINA IoProcessor thread -- keeps a small cache of released memory per size
+ * class, and anything that doesn't fit there goes to an arena shared by all
+ * threads.  The arena and the thread caches together never hold more than a
+ * configurable number of bytes; memory beyond that, and buffers larger than
+ * the largest size class, are simply left to the garbage collector.  The
+ * cache of a thread that has exited goes back to the shared arena the next
+ * time a thread starts using the allocator or the pool is full.<p>
+ *
+ * Buffers keep MINA's reference counting: memory is recycled once a buffer
+ * has been released as many times as it's been acquired, plus once.
+ * Duplicates and slices have counts of their own and keep the memory they
+ * share with their parent from being recycled until they are released too.
+ * A derived buffer that's never released just means its memory goes to the
+ * garbage collector rather than back to the pool.  That includes the
+ * slices of their input the decoding states hand to <code>finishDecode</code>
+ * when a token arrives in one piece -- code that gets them should release
+ * them when it's done, or their memory is lost to the pool.  As with any
+ * pool, a buffer must not be used after its final release.<p>
+ *
+ * Pooling is opt-in.  Nothing in this library installs the allocator;
+ * an application that wants pooled buffers calls {@link #install()} once
+ * at startup, before any buffers are allocated.
+ */
+public final class SizeClassByteBufferAllocator implements ByteBufferAllocator
+    {
+
+    /**
+     * The default maximum number of bytes held by the pool.
+     */
+    public static final long DEFAULT_MAX_POOLED_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * The default size of the largest pooled size class.
+     */
+    public static final int DEFAULT_MAX_POOLED_CAPACITY = 1024 * 1024;
+
+    /**
+     * The smallest size class is 2^MIN_SHIFT bytes.
+     */
+    private static final int MIN_SHIFT = 6;
+
+    /**
+     * The number of bytes each thread may cache per size class.
+     */
+    private static final int THREAD_CACHE_BYTES = 256 * 1024;
+
+    /**
+     * The most buffers each thread may cache per size class.
+     */
+    private static final int MAX_THREAD_CACHE_ENTRIES = 64;
+
+    private static final SizeClassByteBufferAllocator SHARED =
+        new SizeClassByteBufferAllocator();
+
+    private final Arena m_heap;
+
+    private final Arena m_direct;
+
+    /**
+     * Makes a shared instance with the default limits MINA's global 
+     * allocator, unless it already is.  A {@link BufferLeakDetector} 
+     * around the shared instance is left in place.  This replaces any other
+     * allocator the application has set, so it's for applications to call
+     * explicitly at startup -- nothing calls it for them.
+     */
+    public static void install()
+        {
+        synchronized (SHARED)
+            {
+            final ByteBufferAllocator current = ByteBuffer.getAllocator();
+            if (current == SHARED)
+                {
+                return;
+                }
+            if (current instanceof BufferLeakDetector &&
+                ((BufferLeakDetector) current).getDelegate() == SHARED)
+                {
+                return;
+                }
+            ByteBuffer.setAllocator(SHARED);
+            }
+        }
+
+    /**
+     * Returns the shared instance used by {@link #install()}.
+     */
+    static SizeClassByteBufferAllocator shared()
+        {
+        return SHARED;
+        }
+
+    /**
+     * Creates a new allocator with the default limits.
+     */
+    public SizeClassByteBufferAllocator()
+        {
+        this(DEFAULT_MAX_POOLED_BYTES, DEFAULT_MAX_POOLED_CAPACITY);
+        }
+
+    /**
+     * Creates a new allocator.
+     *
+     * @param maxPooledBytes The maximum number of bytes the pool holds for
+     * each of heap and direct memory, including the thread caches.
+     * @param maxPooledCapacity The largest buffer capacity to pool.  Larger
+     * buffers are allocated and dropped as usual.  This is rounded up to a
+     * power of two.
+     */
+    public SizeClassByteBufferAllocator(final long maxPooledBytes,
+        final int maxPooledCapacity)
+        {
+        if (maxPooledBytes < 0)
+            {
+            throw new IllegalArgumentException("Bad max pooled bytes: " +
+                maxPooledBytes);
+            }
+        if (maxPooledCapacity <= 0 || maxPooledCapacity > (1 << 30))
+            {
+            throw new IllegalArgumentException("Bad max pooled capacity: " +
+                maxPooledCapacity);
+            }
+        final int classes = sizeClass(maxPooledCapacity) + 1;
+        m_heap = new Arena(false, classes, maxPooledBytes);
+        m_direct = new Arena(true, classes, maxPooledBytes);
+        }
+
+    public ByteBuffer allocate(final int capacity, final boolean direct)
+        {
+        if (capacity < 0)
+            {
+            throw new IllegalArgumentException("Negative capacity: " +
+                capacity);
+            }
+        final Chunk chunk = arena(direct).allocate(capacity);
+        return new PooledByteBuffer(chunk, chunk.slice(capacity));
+        }
+
+    public ByteBuffer wrap(final java.nio.ByteBuffer nioBuffer)
+        {
+        return new PooledByteBuffer(null, nioBuffer);
+        }
+
+    public void dispose()
+        {
+        m_heap.clear();
+        m_direct.clear();
+        }
+
+    /**
+     * Returns the number of bytes currently held by the pool, including
+     * memory cached by individual threads.
+     *
+     * @return The number of pooled bytes.
+     */
+    public long getPooledBytes()
+        {
+        m_heap.drainDeadCaches();
+        m_direct.drainDeadCaches();
+        return m_heap.m_pooledBytes.get() + m_direct.m_pooledBytes.get();
+        }
+
+    private Arena arena(final boolean direct)
+        {
+        return direct ? m_direct : m_heap;
+        }
+
+    private static int sizeClass(final int capacity)
+        {
+        if (capacity <= (1 << MIN_SHIFT))
+            {
+            return 0;
+            }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+        }
+
+    private static int classSize(final int sizeClass)
+        {
+        return 1 << (sizeClass + MIN_SHIFT);
+        }
+
+    /**
+     * A block of memory of one size class, shared by a buffer and the
+     * buffers derived from it.
+     */
+    private static final class Chunk
+        {
+        private final Arena m_arena;
+        private final java.nio.ByteBuffer m_memory;
+        private final int m_sizeClass;
+        private final AtomicInteger m_refs = new AtomicInteger(1);
+        private volatile boolean m_recyclable = true;
+
+        private Chunk(final Arena arena, final java.nio.ByteBuffer memory,
+            final int sizeClass)
+            {
+            m_arena = arena;
+            m_memory = memory;
+            m_sizeClass = sizeClass;
+            }
+
+        /**
+         * Returns a buffer over the first <code>capacity</code> bytes of this
+         * chunk, so callers see exactly the capacity they asked for.
+         */
+        private java.nio.ByteBuffer slice(final int capacity)
+            {
+            final java.nio.ByteBuffer dup = m_memory.duplicate();
+            dup.clear();
+            dup.limit(capacity);
+            return dup.slice();
+            }
+
+        private void retain()
+            {
+            m_refs.incrementAndGet();
+            }
+
+        private void release()
+            {
+            if (m_refs.decrementAndGet() == 0 && m_recyclable &&
+                m_arena != null)
+                {
+                m_arena.recycle(this);
+                }
+            }
+        }
+
+    /**
+     * The pools for one kind of memory.
+     */
+    private static final class Arena
+        {
+        private final boolean m_direct;
+        private final Queue<Chunk>[] m_shared;
+        private final long m_maxPooledBytes;
+
+        /**
+         * The bytes held by the shared queues and the thread caches.
+         */
+        private final AtomicLong m_pooledBytes = new AtomicLong();
+        private final ThreadLocal<ThreadCache> m_threadCache;
+
+        /**
+         * All thread caches, so the caches of threads that have exited can
+         * be drained.
+         */
+        private final Queue<ThreadCache> m_caches =
+            new ConcurrentLinkedQueue<ThreadCache>();
+
+        @SuppressWarnings("unchecked")
+        private Arena(final boolean direct, final int classes,
+            final long maxPooledBytes)
+            {
+            m_direct = direct;
+            m_maxPooledBytes = maxPooledBytes;
+            m_shared = new Queue[classes];
+            for (int i = 0; i < classes; i++)
+                {
+                m_shared[i] = new ConcurrentLinkedQueue<Chunk>();
+                }
+            m_threadCache = new ThreadLocal<ThreadCache>()
+                {
+                @Override
+                protected ThreadCache initialValue()
+                    {
+                    drainDeadCaches();
+                    final ThreadCache cache = new ThreadCache(classes);
+                    m_caches.add(cache);
+                    return cache;
+                    }
+                };
+            }
+
+        private Chunk allocate(final int capacity)
+            {
+            final int sizeClass = sizeClass(capacity);
+            if (sizeClass >= m_shared.length)
+                {
+                // Too big to pool.
+                return new Chunk(null, newMemory(capacity), sizeClass);
+                }
+            Chunk chunk = m_threadCache.get().poll(sizeClass);
+            if (chunk == null)
+                {
+                chunk = m_shared[sizeClass].poll();
+                }
+            if (chunk == null)
+                {
+                return new Chunk(this, newMemory(classSize(sizeClass)),
+                    sizeClass);
+                }
+            m_pooledBytes.addAndGet(-classSize(sizeClass));
+            chunk.m_refs.set(1);
+            return chunk;
+            }
+
+        private java.nio.ByteBuffer newMemory(final int capacity)
+            {
+            return m_direct ? java.nio.ByteBuffer.allocateDirect(capacity) :
+                java.nio.ByteBuffer.allocate(capacity);
+            }
+
+        private void recycle(final Chunk chunk)
+            {
+            if (!reserve(classSize(chunk.m_sizeClass)))
+                {
+                return;
+                }
+            if (!m_threadCache.get().offer(chunk))
+                {
+                m_shared[chunk.m_sizeClass].offer(chunk);
+                }
+            }
+
+        /**
+         * Counts the specified number of bytes as pooled, unless that would
+         * go over the limit.  A full pool first takes back the caches of 
+         * threads that have exited, which may be what's filling it.
+         *
+         * @return <code>true</code> if the bytes may be pooled.
+         */
+        private boolean reserve(final int size)
+            {
+            if (m_pooledBytes.addAndGet(size) <= m_maxPooledBytes)
+                {
+                return true;
+                }
+            m_pooledBytes.addAndGet(-size);
+            if (!drainDeadCaches())
+                {
+                return false;
+                }
+            if (m_pooledBytes.addAndGet(size) <= m_maxPooledBytes)
+                {
+                return true;
+                }
+            m_pooledBytes.addAndGet(-size);
+            return false;
+            }
+
+        /**
+         * Moves the chunks cached by threads that have exited to the shared
+         * queues.  They're already counted as pooled.
+         *
+         * @return <code>true</code> if any cache was drained.
+         */
+        private boolean drainDeadCaches()
+            {
+            boolean drained = false;
+            for (final ThreadCache cache : m_caches)
+                {
+                if (cache.isDead() && m_caches.remove(cache))
+                    {
+                    Chunk chunk;
+                    while ((chunk = cache.pollAny()) != null)
+                        {
+                        m_shared[chunk.m_sizeClass].offer(chunk);
+                        }
+                    drained = true;
+                    }
+                }
+            return drained;
+            }
+
+        private void clear()
+            {
+            drainDeadCaches();
+            for (final Queue<Chunk> queue : m_shared)
+                {
+                Chunk chunk;
+                while ((chunk = queue.poll()) != null)
+                    {
+                    m_pooledBytes.addAndGet(-classSize(chunk.m_sizeClass));
+                    }
+                }
+            }
+        }
+
+    /**
+     * Released chunks cached by a single thread.  Only that thread uses the
+     * cache until it exits.
+     */
+    private static final class ThreadCache
+        {
+        private final Chunk[][] m_chunks;
+        private final int[] m_counts;
+        private final WeakReference<Thread> m_thread =
+            new WeakReference<Thread>(Thread.currentThread());
+
+        private ThreadCache(final int classes)
+            {
+            m_chunks = new Chunk[classes][];
+            m_counts = new int[classes];
+            for (int i = 0; i < classes; i++)
+                {
+                final int entries = Math.min(MAX_THREAD_CACHE_ENTRIES,
+                    THREAD_CACHE_BYTES / classSize(i));
+                m_chunks[i] = new Chunk[entries];
+                }
+            }
+
+        private Chunk poll(final int sizeClass)
+            {
+            final int count = m_counts[sizeClass];
+            if (count == 0)
+                {
+                return null;
+                }
+            final Chunk chunk = m_chunks[sizeClass][count - 1];
+            m_chunks[sizeClass][count - 1] = null;
+            m_counts[sizeClass] = count - 1;
+            return chunk;
+            }
+
+        /**
+         * Removes a chunk of any size class, for draining the cache.
+         */
+        private Chunk pollAny()
+            {
+            for (int i = 0; i < m_counts.length; i++)
+                {
+                final Chunk chunk = poll(i);
+                if (chunk != null)
+                    {
+                    return chunk;
+                    }
+                }
+            return null;
+            }
+
+        private boolean isDead()
+            {
+            final Thread thread = m_thread.get();
+            return thread == null || !thread.isAlive();
+            }
+
+        private boolean offer(final Chunk chunk)
+            {
+            final int sizeClass = chunk.m_sizeClass;
+            final int count = m_counts[sizeClass];
+            if (count == m_chunks[sizeClass].length)
+                {
+                return false;
+                }
+            m_chunks[sizeClass][count] = chunk;
+            m_counts[sizeClass] = count + 1;
+            return true;
+            }
+        }
+
+    private final class PooledByteBuffer extends BaseByteBuffer
+        {
+        private java.nio.ByteBuffer m_buf;
+
+        /**
+         * The memory behind the buffer, or <code>null</code> for wrapped
+         * buffers.
+         */
+        private Chunk m_chunk;
+
+        private final AtomicInteger m_refCount = new AtomicInteger(1);
+
+        private PooledByteBuffer(final Chunk chunk,
+            final java.nio.ByteBuffer buf)
+            {
+            m_chunk = chunk;
+            m_buf = buf;
+            m_buf.order(ByteOrder.BIG_ENDIAN);
+            }
+
+        @Override
+        public java.nio.ByteBuffer buf()
+            {
+            return m_buf;
+            }
+
+        @Override
+        public void acquire()
+            {
+            while (true)
+                {
+                final int count = m_refCount.get();
+                if (count <= 0)
+                    {
+                    throw new IllegalStateException("Already released buffer.");
+                    }
+                if (m_refCount.compareAndSet(count, count + 1))
+                    {
+                    return;
+                    }
+                }
+            }
+
+        @Override
+        public void release()
+            {
+            final int count = m_refCount.decrementAndGet();
+            if (count > 0)
+                {
+                return;
+                }
+            if (count < 0)
+                {
+                m_refCount.set(0);
+                throw new IllegalStateException("Already released buffer.  " +
+                    "You released the buffer too many times.");
+                }
+            final Chunk chunk;
+            synchronized (this)
+                {
+                chunk = m_chunk;
+                m_chunk = null;
+                }
+            if (chunk != null)
+                {
+                chunk.release();
+                }
+            }
+
+        @Override
+        public boolean isPooled()
+            {
+            final Chunk chunk = m_chunk;
+            return chunk != null && chunk.m_recyclable;
+            }
+
+        @Override
+        public void setPooled(final boolean pooled)
+            {
+            final Chunk chunk = m_chunk;
+            if (chunk != null && !pooled)
+                {
+                // The memory may escape, so never reuse it.
+                chunk.m_recyclable = false;
+                }
+            }
+
+        @Override
+        protected void capacity0(final int requestedCapacity)
+            {
+            final Chunk oldChunk;
+            final Chunk newChunk =
+                arena(m_buf.isDirect()).allocate(requestedCapacity);
+            // Expanding buffers may as well use the whole chunk.
+            final java.nio.ByteBuffer newBuf =
+                newChunk.slice(newChunk.m_memory.capacity());
+            final java.nio.ByteBuffer oldBuf = m_buf;
+            oldBuf.clear();
+            newBuf.clear();
+            newBuf.put(oldBuf);
+            synchronized (this)
+                {
+                oldChunk = m_chunk;
+                m_chunk = newChunk;
+                m_buf = newBuf;
+                }
+            if (oldChunk != null)
+                {
+                oldChunk.release();
+                }
+            }
+
+        @Override
+        public ByteBuffer duplicate()
+            {
+            return derive(m_buf.duplicate());
+            }
+
+        @Override
+        public ByteBuffer slice()
+            {
+            return derive(m_buf.slice());
+            }
+
+        @Override
+        public ByteBuffer asReadOnlyBuffer()
+            {
+            return derive(m_buf.asReadOnlyBuffer());
+            }
+
+        private ByteBuffer derive(final java.nio.ByteBuffer buf)
+            {
+            final Chunk chunk;
+            synchronized (this)
+                {
+                chunk = m_chunk;
+                if (chunk != null)
+                    {
+                    chunk.retain();
+                    }
+                }
+            return new PooledByteBuffer(chunk, buf);
+            }
+
+        @Override
+        public byte[] array()
+            {
+            return m_buf.array();
+            }
+
+        @Override
+        public int arrayOffset()
+            {
+            return m_buf.arrayOffset();
+            }
+        }
+    }
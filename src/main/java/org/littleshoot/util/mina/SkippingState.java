@@ -28,17 +28,11 @@ public abstract class SkippingState implements DecodingState
         {
         final int beginPos = in.position();
         final int limit = in.limit();
-        for (int i = beginPos; i < limit; i++)
+        final int i = ByteSearch.indexOfNot(in, beginPos, limit, m_byteToSkip);
+        if (i >= 0)
             {
-            final byte b = in.get(i);
-            if (b != m_byteToSkip)
-                {
-                in.position(i);
-                return finishDecode();
-                }
-            else
-                {
-                }
+            in.position(i);
+            return finishDecode();
             }
 
         in.position(limit);
@@ -3,11 +3,16 @@ package org.littleshoot.util.mina;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import org.littleshoot.mina.common.ByteBuffer;
-import org.littleshoot.mina.common.IdleStatus;
 import org.littleshoot.mina.common.IoHandlerAdapter;
 import org.littleshoot.mina.common.IoSession;
 import org.slf4j.Logger;
@@ -16,6 +21,24 @@ import org.slf4j.LoggerFactory;
 public class SocketIoHandler extends IoHandlerAdapter
     {
     
+    private static final Logger LOG = 
+        LoggerFactory.getLogger(SocketIoHandler.class);
+
+    /**
+     * <code>Thread.ofVirtual()</code> and the <code>name</code> and 
+     * <code>start</code> methods of the builder it returns when running on 
+     * a JVM with virtual threads, otherwise <code>null</code>.
+     */
+    private static final Method OF_VIRTUAL = 
+        virtualThreadMethod("java.lang.Thread", "ofVirtual");
+
+    private static final Method BUILDER_NAME = 
+        virtualThreadMethod("java.lang.Thread$Builder", "name", String.class);
+
+    private static final Method BUILDER_START = 
+        virtualThreadMethod("java.lang.Thread$Builder", "start", 
+            Runnable.class);
+
     private final Logger m_log = LoggerFactory.getLogger(getClass());
     private static final String KEY_IN = 
         SocketIoHandler.class.getName()+".in";
@@ -23,12 +46,29 @@ public class SocketIoHandler extends IoHandlerAdapter
     private static final String KEY_OUT = 
         SocketIoHandler.class.getName()+ ".out";
 
+    private static final String KEY_MBEAN = 
+        SocketIoHandler.class.getName()+ ".mbean";
+
     private int m_readTimeout;
 
     private int m_writeTimeout;
 
+    private boolean m_segmentedInput;
+
+    private int m_lowWatermark;
+
+    private int m_highWatermark;
+
+    private int m_maxOutstandingWrites;
+
+    private int m_maxOutstandingBytes;
+
     private final IoSessionOutputStreamFactory m_osFactory;
 
+    private IoSessionSocketHandler m_socketHandler;
+
+    private boolean m_registerMBeans;
+
     public SocketIoHandler()
         {
         m_osFactory = new IoSessionOutputStreamFactory()
@@ -56,7 +96,9 @@ public class SocketIoHandler extends IoHandlerAdapter
 
     /**
      * Sets read timeout in seconds. The default value is <tt>0</tt>
-     * (disabled).
+     * (disabled).  A read that waits longer than this throws a 
+     * {@link SocketTimeoutException}.  Sockets can change their own timeout
+     * with {@link Socket#setSoTimeout(int)}.
      */
     public void setReadTimeout(final int readTimeout)
         {
@@ -81,6 +123,82 @@ public class SocketIoHandler extends IoHandlerAdapter
         this.m_writeTimeout = writeTimeout;
         }
 
+    /**
+     * Returns whether or not input streams queue received buffers instead of
+     * copying them.  The default value is <tt>false</tt>.
+     */
+    public boolean isSegmentedInput()
+        {
+        return m_segmentedInput;
+        }
+
+    /**
+     * Sets whether or not input streams queue received buffers instead of
+     * copying them.  This avoids copying every received byte for bulk 
+     * transfers.  The default value is <tt>false</tt>.
+     */
+    public void setSegmentedInput(final boolean segmentedInput)
+        {
+        this.m_segmentedInput = segmentedInput;
+        }
+
+    /**
+     * Sets the read watermarks for input streams.  Reads on a session are 
+     * suspended once its input stream buffers <tt>highWatermark</tt> bytes
+     * and resumed once the reader drains it to <tt>lowWatermark</tt> bytes.
+     * A high watermark of <tt>0</tt> disables flow control, which is the 
+     * default.
+     * 
+     * @see IoSessionInputStream#setReadWatermarks(int, int)
+     */
+    public void setReadWatermarks(final int lowWatermark, 
+        final int highWatermark)
+        {
+        this.m_lowWatermark = lowWatermark;
+        this.m_highWatermark = highWatermark;
+        }
+
+    /**
+     * Sets the write window for output streams.  Writes are pipelined until
+     * this many writes or bytes are outstanding.  Limits of <tt>0</tt> make
+     * every write wait for the session, which is the default.  This only
+     * applies to streams extending {@link AbstractIoSessionOutputStream}.
+     * 
+     * @see AbstractIoSessionOutputStream#setWriteWindow(int, int)
+     */
+    public void setWriteWindow(final int maxOutstandingWrites, 
+        final int maxOutstandingBytes)
+        {
+        this.m_maxOutstandingWrites = maxOutstandingWrites;
+        this.m_maxOutstandingBytes = maxOutstandingBytes;
+        }
+
+    /**
+     * Sets a handler to run for each new session.  Each session gets a 
+     * thread of its own -- a virtual thread on JVMs that support them, 
+     * otherwise a daemon thread -- so the handler can use the session's 
+     * socket with ordinary blocking code.
+     * 
+     * @param socketHandler The handler, or <code>null</code> to not start a
+     * thread for each session, which is the default.
+     */
+    public void setSocketHandler(final IoSessionSocketHandler socketHandler)
+        {
+        this.m_socketHandler = socketHandler;
+        }
+
+    /**
+     * Sets whether or not to register the traffic statistics of each session
+     * with the platform MBean server while the session is open.  The default
+     * value is <tt>false</tt>.
+     * 
+     * @see IoSessionStatsMBean
+     */
+    public void setRegisterMBeans(final boolean registerMBeans)
+        {
+        this.m_registerMBeans = registerMBeans;
+        }
+
     /**
      * Initializes streams and timeout settings.
      */
@@ -89,16 +207,147 @@ public class SocketIoHandler extends IoHandlerAdapter
         {
         // Set timeouts
         session.setWriteTimeout(m_writeTimeout);
-        session.setIdleTime(IdleStatus.READER_IDLE, m_readTimeout);
 
-        // Create streams
-        final InputStream in = new IoSessionInputStream(session, m_readTimeout);
+        // Create streams.  The stream enforces the read timeout on each read
+        // rather than failing the session once it's idle.
+        final IoSessionInputStream in = new IoSessionInputStream(session, 
+            m_readTimeout * 1000, m_segmentedInput);
+        in.setReadWatermarks(m_lowWatermark, m_highWatermark);
         final OutputStream out = this.m_osFactory.newStream(session);
+        if (out instanceof AbstractIoSessionOutputStream<?>)
+            {
+            ((AbstractIoSessionOutputStream<?>) out).setWriteWindow(
+                m_maxOutstandingWrites, m_maxOutstandingBytes);
+            }
         session.setAttribute(KEY_IN, in);
         session.setAttribute(KEY_OUT, out);
-        final Socket ioSocket = new IoSessionSocket(session, in, out);
+        final IoSessionSocket ioSocket = new IoSessionSocket(session, in, out);
         session.setAttribute("SOCKET", ioSocket);
-        //onSocket(ioSocket);
+        if (m_registerMBeans)
+            {
+            registerMBean(session, ioSocket.getStats());
+            }
+        if (m_socketHandler != null)
+            {
+            onSocket(session, ioSocket, m_socketHandler);
+            }
+        }
+
+    private void registerMBean(final IoSession session, 
+        final IoSessionStats stats)
+        {
+        try
+            {
+            final ObjectName name = new ObjectName(
+                "org.littleshoot.util.mina:type=IoSession,name=" +
+                ObjectName.quote(session.getRemoteAddress() + "-" + 
+                    System.identityHashCode(session)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(stats, 
+                name);
+            session.setAttribute(KEY_MBEAN, name);
+            }
+        catch (final JMException e)
+            {
+            m_log.warn("Could not register session statistics", e);
+            }
+        }
+
+    private void unregisterMBean(final IoSession session)
+        {
+        final ObjectName name = (ObjectName) session.removeAttribute(KEY_MBEAN);
+        if (name == null)
+            {
+            return;
+            }
+        try
+            {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            }
+        catch (final JMException e)
+            {
+            m_log.warn("Could not unregister session statistics", e);
+            }
+        }
+
+    private void onSocket(final IoSession session, final Socket socket, 
+        final IoSessionSocketHandler socketHandler)
+        {
+        final Runnable runner = new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    socketHandler.onSocket(socket);
+                    }
+                catch (final IOException e)
+                    {
+                    m_log.debug("Error handling socket", e);
+                    }
+                catch (final RuntimeException e)
+                    {
+                    m_log.warn("Unexpected error handling socket", e);
+                    }
+                finally
+                    {
+                    try
+                        {
+                        socket.close();
+                        }
+                    catch (final IOException e)
+                        {
+                        m_log.debug("Error closing socket", e);
+                        }
+                    }
+                }
+            };
+        startThread(runner, 
+            "IoSession-Socket-Thread-"+session.getRemoteAddress());
+        }
+
+    private static void startThread(final Runnable runner, final String name)
+        {
+        if (OF_VIRTUAL != null && BUILDER_NAME != null && BUILDER_START != null)
+            {
+            try
+                {
+                final Object builder = 
+                    BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name);
+                BUILDER_START.invoke(builder, runner);
+                return;
+                }
+            catch (final IllegalAccessException e)
+                {
+                LOG.warn("Could not start virtual thread", e);
+                }
+            catch (final InvocationTargetException e)
+                {
+                LOG.warn("Could not start virtual thread", e.getCause());
+                }
+            }
+        final Thread thread = new Thread(runner, name);
+        thread.setDaemon(true);
+        thread.start();
+        }
+
+    private static Method virtualThreadMethod(final String className,
+        final String methodName, final Class<?>... parameterTypes)
+        {
+        try
+            {
+            return Class.forName(className).getMethod(methodName, 
+                parameterTypes);
+            }
+        catch (final ClassNotFoundException e)
+            {
+            LOG.debug("No virtual threads -- using platform threads");
+            return null;
+            }
+        catch (final NoSuchMethodException e)
+            {
+            LOG.debug("No virtual threads -- using platform threads");
+            return null;
+            }
         }
 
     /**
@@ -108,6 +357,7 @@ public class SocketIoHandler extends IoHandlerAdapter
     public void sessionClosed(final IoSession session) throws Exception
         {
         m_log.debug("Closing streams!!!");
+        unregisterMBean(session);
         final InputStream in = (InputStream) session.getAttribute(KEY_IN);
         final OutputStream out = (OutputStream) session.getAttribute(KEY_OUT);
         try
@@ -142,19 +392,9 @@ public class SocketIoHandler extends IoHandlerAdapter
         final IoSessionInputStream in = (IoSessionInputStream) session
                 .getAttribute(KEY_IN);
 
-        IOException e = null;
-        if (cause instanceof StreamIoException)
-            {
-            e = (IOException) cause.getCause();
-            }
-        else if (cause instanceof IOException)
-            {
-            e = (IOException) cause;
-            }
-
-        if (e != null && in != null)
+        if (cause instanceof IOException && in != null)
             {
-            in.throwException(e);
+            in.throwException((IOException) cause);
             }
         else
             {
@@ -162,28 +402,4 @@ public class SocketIoHandler extends IoHandlerAdapter
             session.close();
             }
         }
-
-    /**
-     * Handles read timeout.
-     */
-    @Override
-    public void sessionIdle(final IoSession session, final IdleStatus status)
-        {
-        m_log.debug("Session Idle!!!");
-        if (status == IdleStatus.READER_IDLE)
-            {
-            throw new StreamIoException(new SocketTimeoutException(
-                    "Read timeout"));
-            }
-        }
-
-    private static class StreamIoException extends RuntimeException
-        {
-        private static final long serialVersionUID = 3976736960742503222L;
-
-        private StreamIoException(final IOException cause)
-            {
-            super(cause);
-            }
-        }
     }
@@ -90,6 +90,7 @@ public class StateMachineProtocolDecoder implements ProtocolDecoder
             }
         catch (final Exception e)
             {
+            release(state);
             state = null;
             throw e;
             }
@@ -101,6 +102,18 @@ public class StateMachineProtocolDecoder implements ProtocolDecoder
 
     public void dispose(final IoSession session) throws Exception
         {
+        // Let go of anything held for a message that will never finish.
+        final DecodingState state = this.m_currentState;
+        this.m_currentState = null;
+        release(state);
+        }
+
+    private static void release(final DecodingState state)
+        {
+        if (state instanceof ReleasableDecodingState)
+            {
+            ((ReleasableDecodingState) state).release();
+            }
         }
 
     public void finishDecode(final IoSession session, 
@@ -0,0 +1,123 @@
+package org.littleshoot.util.mina;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderException;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * A {@link DecodingState} that reads a known number of bytes, like 
+ * {@link FixedLengthDecodingState}, but passes them on as they arrive 
+ * rather than collecting them first.  Nothing is buffered, so a body of 
+ * any length takes constant memory, and can be processed or forwarded 
+ * while the rest of it is still on the way.<p>
+ * 
+ * Once all the bytes have been read the state starts over, so it can be
+ * reused for the next body of the same length.
+ */
+public abstract class StreamingFixedLengthDecodingState 
+    implements DecodingState
+    {
+
+    protected final long m_length;
+
+    private final long m_maxLength;
+
+    private long m_remaining;
+
+    /**
+     * Creates a new state with no maximum length.
+     * 
+     * @param length The number of bytes to read.
+     */
+    public StreamingFixedLengthDecodingState(final long length)
+        {
+        this(length, Long.MAX_VALUE);
+        }
+
+    /**
+     * Creates a new state.  Decoding fails with a 
+     * {@link ProtocolDecoderException} if the length is larger than the 
+     * maximum, so lengths taken from the peer can be passed in unchecked.
+     * 
+     * @param length The number of bytes to read.
+     * @param maxLength The largest length to accept.
+     */
+    public StreamingFixedLengthDecodingState(final long length, 
+        final long maxLength)
+        {
+        if (length < 0)
+            {
+            throw new IllegalArgumentException("Negative length: "+length);
+            }
+        this.m_length = length;
+        this.m_maxLength = maxLength;
+        this.m_remaining = length;
+        }
+
+    public DecodingState decode(final ByteBuffer in, 
+        final ProtocolDecoderOutput out) throws Exception
+        {
+        if (m_length > m_maxLength)
+            {
+            throw new ProtocolDecoderException("Length "+m_length+
+                " is over the maximum of "+m_maxLength);
+            }
+        if (m_remaining == 0)
+            {
+            // Nothing to read at all.
+            return finishChunk(emptyChunk(), true, out);
+            }
+
+        final int length = (int) Math.min(in.remaining(), m_remaining);
+        final int limit = in.limit();
+        in.limit(in.position() + length);
+        final ByteBuffer chunk = in.slice();
+        in.position(in.limit());
+        in.limit(limit);
+
+        m_remaining -= length;
+        final boolean last = m_remaining == 0;
+        if (last)
+            {
+            m_remaining = m_length;
+            }
+        return finishChunk(chunk, last, out);
+        }
+
+    /**
+     * Returns the number of bytes of the current body still to be read.
+     * 
+     * @return The number of bytes left.
+     */
+    public long getRemaining()
+        {
+        return m_remaining;
+        }
+
+    private static ByteBuffer emptyChunk()
+        {
+        final ByteBuffer chunk = ByteBuffer.allocate(1);
+        chunk.limit(0);
+        return chunk;
+        }
+
+    /**
+     * Called with each piece of the body as it arrives.  The chunk is a 
+     * slice of the read buffer, and like any slice it holds a reference to
+     * the memory behind the read -- with a pooling allocator such as 
+     * {@link SizeClassByteBufferAllocator}, that memory can't go back to 
+     * the pool until the chunk is released.  Chunks can be kept after the
+     * call, but whoever keeps one must release it once they're done with 
+     * it, and a chunk that isn't kept should be released before returning.
+     * 
+     * @param chunk The next bytes of the body, as a slice of the read that
+     * pins its memory until it's released.
+     * @param last Whether this is the end of the body.
+     * @param out The output to write to.
+     * @return The next state.  Return this state to carry on reading the
+     * body, or the state to switch to after the last chunk.
+     * @throws Exception If any error occurs.
+     */
+    protected abstract DecodingState finishChunk(ByteBuffer chunk, 
+        boolean last, ProtocolDecoderOutput out) throws Exception;
+    }
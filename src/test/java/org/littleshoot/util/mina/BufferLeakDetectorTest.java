@@ -0,0 +1,61 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Tests for the buffer leak detector.
+ */
+public class BufferLeakDetectorTest
+    {
+
+    @Test public void testReleasedBuffersAreNotReported() throws Exception
+        {
+        final BufferLeakDetector detector = new BufferLeakDetector(
+            new SizeClassByteBufferAllocator(), 2, 0);
+        for (int i = 0; i < 10; i++)
+            {
+            final ByteBuffer buf = detector.allocate(100, false);
+            buf.setAutoExpand(true);
+            buf.acquire();
+            buf.put(new byte[300]);
+            buf.release();
+            assertEquals(300, buf.position());
+            buf.release();
+            }
+        assertEquals(0, detector.getTracked());
+        assertEquals(0, detector.getLeaks());
+        }
+
+    @Test public void testLeak() throws Exception
+        {
+        final BufferLeakDetector detector = new BufferLeakDetector(
+            new SizeClassByteBufferAllocator(), 1, 0);
+        detector.allocate(100, false).put((byte) 1);
+        assertEquals(1, detector.getTracked());
+        for (int i = 0; i < 50 && detector.getLeaks() == 0; i++)
+            {
+            System.gc();
+            Thread.sleep(20);
+            }
+        assertEquals(1, detector.getLeaks());
+        assertEquals(0, detector.getTracked());
+        }
+
+    @Test public void testRetention() throws Exception
+        {
+        final BufferLeakDetector detector = new BufferLeakDetector(
+            new SizeClassByteBufferAllocator(), 1, 1);
+        final ByteBuffer held = detector.allocate(100, false);
+        Thread.sleep(20);
+        detector.check();
+        detector.check();
+        assertEquals(1, detector.getRetained());
+        held.release();
+        assertEquals(0, detector.getTracked());
+        assertTrue(detector.getLeaks() == 0);
+        }
+    }
@@ -0,0 +1,132 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoFilter;
+import org.littleshoot.mina.common.IoFilter.NextFilter;
+import org.littleshoot.mina.common.IoSession;
+
+/**
+ * Tests for choosing heap or direct buffers per session.
+ */
+public class BufferStrategyTest
+    {
+
+    @Test public void testSessionWrites() throws Exception
+        {
+        checkWrites(BufferStrategy.DIRECT, true, true);
+        checkWrites(BufferStrategy.HEAP, false, false);
+        checkWrites(BufferStrategy.hybrid(64), false, true);
+        }
+
+    private void checkWrites(final BufferStrategy strategy,
+        final boolean smallDirect, final boolean largeDirect) 
+        throws Exception
+        {
+        final IoSessionStub stub = new IoSessionStub();
+        final IoSession session = stub.getSession();
+        strategy.apply(session);
+        assertSame(strategy, BufferStrategy.of(session));
+
+        final ByteBufferIoSessionOutputStream out = 
+            new ByteBufferIoSessionOutputStream(session);
+        out.write(new byte[8]);
+        out.write(new byte[100]);
+
+        final CoalescingIoSessionOutputStream coalescing = 
+            new CoalescingIoSessionOutputStream(session, 32, 0);
+        coalescing.write(new byte[8]);
+        coalescing.flush();
+
+        final IoSessionByteChannel channel = new IoSessionByteChannel(
+            session, new IoSessionInputStream(session, 0), out);
+        channel.write(java.nio.ByteBuffer.wrap(new byte[100]));
+
+        final List<ByteBuffer> writes = stub.getWrittenBuffers();
+        assertDirect(smallDirect, writes.get(0));
+        assertDirect(largeDirect, writes.get(1));
+        // The coalescing buffer is allocated at the threshold size.
+        assertDirect(strategy.isDirect(32), writes.get(2));
+        assertDirect(largeDirect, writes.get(3));
+        }
+
+    @Test public void testSessionReads() throws Exception
+        {
+        final IoSessionStub stub = new IoSessionStub();
+        BufferStrategy.DIRECT.apply(stub.getSession());
+        final IoSessionInputStream in = 
+            new IoSessionInputStream(stub.getSession(), 0);
+        final ByteBuffer received = ByteBuffer.allocate(1000);
+        received.put(new byte[1000]);
+        received.flip();
+        in.write(received);
+
+        // Received data is copied into the stream's buffer, which stays
+        // direct as it expands.
+        assertTrue(inputBuffer(in).isDirect());
+        assertEquals(1000, in.read(new byte[1000]));
+
+        final IoSessionInputStream heapIn = 
+            new IoSessionInputStream(new IoSessionStub().getSession(), 0);
+        assertFalse(inputBuffer(heapIn).isDirect());
+        }
+
+    @Test public void testDefaults() throws Exception
+        {
+        final IoSession session = new IoSessionStub().getSession();
+        assertNull(BufferStrategy.of(session));
+        assertFalse(BufferStrategy.allocate(session, 100).isDirect());
+        }
+
+    @Test public void testFilter() throws Exception
+        {
+        final IoSession session = new IoSessionStub().getSession();
+        final Object[] next = new Object[1];
+        final NextFilter nextFilter = (NextFilter) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class[] {NextFilter.class},
+            new InvocationHandler()
+                {
+                public Object invoke(final Object proxy, final Method method,
+                    final Object[] args)
+                    {
+                    if (method.getName().equals("sessionCreated"))
+                        {
+                        next[0] = args[0];
+                        }
+                    return null;
+                    }
+                });
+        final IoFilter filter = BufferStrategy.DIRECT.newFilter();
+        filter.sessionCreated(nextFilter, session);
+        assertSame(session, next[0]);
+        assertSame(BufferStrategy.DIRECT, BufferStrategy.of(session));
+        assertTrue(BufferStrategy.allocate(session, 8).isDirect());
+        }
+
+    private static void assertDirect(final boolean direct, 
+        final ByteBuffer buf)
+        {
+        assertTrue(buf.toString(), buf.isDirect() == direct);
+        }
+
+    private static ByteBuffer inputBuffer(final IoSessionInputStream in)
+        throws Exception
+        {
+        final Field field = 
+            IoSessionInputStream.class.getDeclaredField("m_buf");
+        field.setAccessible(true);
+        return (ByteBuffer) field.get(in);
+        }
+    }
@@ -3,6 +3,7 @@ package org.littleshoot.util.mina;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -144,4 +145,69 @@ public final class ByteBufferUtilTest extends TestCase
         // Make sure the total size of the buffers is the size we expect.
         assertEquals(limit, totalLength);
         }
+    
+    /**
+     * Tests splitting a buffer into slices and iterating over it in chunks 
+     * without copying.
+     * @throws Exception If any unexpected error occurs.
+     */
+    public void testSplitToSlices() throws Exception
+        {
+        final ByteBuffer buffer = createBuffer(25);
+        buffer.position(3);
+        final List<ByteBuffer> slices = 
+            ByteBufferUtils.splitToSlices(buffer, 10);
+        assertEquals(3, slices.size());
+        assertEquals(10, slices.get(0).remaining());
+        assertEquals(2, slices.get(2).remaining());
+        assertEquals(3, buffer.position());
+        
+        final Iterator<ByteBuffer> chunks = ByteBufferUtils.chunks(buffer, 10);
+        int expected = 3;
+        for (final ByteBuffer slice : slices)
+            {
+            final ByteBuffer chunk = chunks.next();
+            assertEquals(slice.remaining(), chunk.remaining());
+            while (slice.hasRemaining())
+                {
+                assertEquals(expected, slice.get());
+                assertEquals(expected, chunk.get());
+                expected++;
+                }
+            }
+        assertFalse(chunks.hasNext());
+        assertEquals(25, expected);
+        }
+    
+    /**
+     * Tests that slices hold on to pooled memory only until they're 
+     * released, and that iterating in chunks doesn't hold on to it at all.
+     * @throws Exception If any unexpected error occurs.
+     */
+    public void testSlicesReleaseMemory() throws Exception
+        {
+        final SizeClassByteBufferAllocator allocator = 
+            new SizeClassByteBufferAllocator();
+        final ByteBuffer buffer = allocator.allocate(100, false);
+        final byte[] array = buffer.array();
+        buffer.limit(25);
+        
+        final Iterator<ByteBuffer> chunks = ByteBufferUtils.chunks(buffer, 10);
+        while (chunks.hasNext())
+            {
+            chunks.next();
+            }
+        final List<ByteBuffer> slices = 
+            ByteBufferUtils.splitToSlices(buffer, 10);
+        assertEquals(0, buffer.position());
+        assertEquals(25, buffer.limit());
+        buffer.release();
+        assertNotSame(array, allocator.allocate(100, false).array());
+        
+        for (final ByteBuffer slice : slices)
+            {
+            slice.release();
+            }
+        assertSame(array, allocator.allocate(100, false).array());
+        }
     }
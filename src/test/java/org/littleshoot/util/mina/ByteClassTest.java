@@ -0,0 +1,132 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Tests for byte classes and the decoding states using them.
+ */
+public class ByteClassTest
+    {
+
+    @Test public void testHttpClasses() throws Exception
+        {
+        for (int i = 0; i < 256; i++)
+            {
+            final byte b = (byte) i;
+            final boolean control = i < 32 || i == 127;
+            final boolean separator = i < 128 && 
+                "\"(),/:;<=>?@[]\\{}".indexOf(i) != -1;
+            assertEquals(control, MinaCodecUtils.isHttpControl(b));
+            assertEquals(separator, MinaCodecUtils.isHttpSeparator(b));
+            assertEquals(i > 32 && i < 127 && !separator,
+                MinaCodecUtils.HTTP_TOKEN.contains(b));
+            assertEquals((!control || i == '\t') && i != '"' && i != '\\',
+                MinaCodecUtils.HTTP_QUOTED_TEXT.contains(b));
+            }
+        assertTrue(MinaCodecUtils.HTTP_LWS.contains(MinaCodecUtils.LF));
+        assertFalse(MinaCodecUtils.HTTP_WHITESPACE.contains(MinaCodecUtils.LF));
+        }
+
+    @Test public void testStates() throws Exception
+        {
+        final List<String> products = new ArrayList<String>();
+        final DecodingState until = new ConsumeUntilClassDecodingState(
+            MinaCodecUtils.HTTP_LWS)
+            {
+            @Override
+            protected DecodingState finishDecode(final byte foundTerminator,
+                final ByteBuffer product, final ProtocolDecoderOutput out)
+                {
+                products.add(MinaUtils.toAsciiString(product) + 
+                    (char) foundTerminator);
+                return null;
+                }
+            };
+        final DecodingState name = new ConsumeWhileClassDecodingState(
+            MinaCodecUtils.HTTP_TOKEN)
+            {
+            @Override
+            protected DecodingState finishDecode(final ByteBuffer product,
+                final ProtocolDecoderOutput out)
+                {
+                products.add(MinaUtils.toAsciiString(product));
+                return until;
+                }
+            };
+
+        DecodingState state = name;
+        final String[] reads = {"Cont", "ent-Type: te", "xt/plain\r\n"};
+        for (final String read : reads)
+            {
+            final ByteBuffer in = ByteBuffer.wrap(read.getBytes("US-ASCII"));
+            while (in.hasRemaining() && state != null)
+                {
+                state = state.decode(in, null);
+                }
+            }
+        assertEquals(2, products.size());
+        assertEquals("Content-Type", products.get(0));
+        assertEquals(": ", products.get(1));
+        }
+
+    @Test public void testStatesWithPooledReads() throws Exception
+        {
+        final String header = "Content-Type: text/plain\r\n";
+        for (int first = 1; first < header.length(); first++)
+            {
+            for (int second = first; second < header.length(); second++)
+                {
+                final List<String> products = new ArrayList<String>();
+                final PooledReads reads = new PooledReads();
+                reads.decode(newStates(products), header.substring(0, first),
+                    header.substring(first, second), header.substring(second));
+                assertEquals(2, products.size());
+                assertEquals("Content-Type", products.get(0));
+                assertEquals(": ", products.get(1));
+                reads.assertAllReleased();
+                }
+            }
+        }
+
+    /**
+     * Creates states reading a header name and the separator after it.
+     */
+    private static DecodingState newStates(final List<String> products)
+        {
+        final DecodingState until = new ConsumeUntilClassDecodingState(
+            MinaCodecUtils.HTTP_LWS)
+            {
+            @Override
+            protected DecodingState finishDecode(final byte foundTerminator,
+                final ByteBuffer product, final ProtocolDecoderOutput out)
+                {
+                products.add(MinaUtils.toAsciiString(product) + 
+                    (char) foundTerminator);
+                product.release();
+                return null;
+                }
+            };
+        return new ConsumeWhileClassDecodingState(MinaCodecUtils.HTTP_TOKEN)
+            {
+            @Override
+            protected DecodingState finishDecode(final ByteBuffer product,
+                final ProtocolDecoderOutput out)
+                {
+                products.add(MinaUtils.toAsciiString(product));
+
+                // Products read in one piece are slices of the read.
+                product.release();
+                return until;
+                }
+            };
+        }
+    }
@@ -0,0 +1,92 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Tests the word-at-a-time byte search and the decoding states using it.
+ */
+public class ByteSearchTest
+    {
+
+    @Test public void testSearchesMatchByteLoop() throws Exception
+        {
+        final Random random = new Random(7);
+        for (int run = 0; run < 2000; run++)
+            {
+            // Use a small alphabet including the sign bit so matches are
+            // common and every byte offset in a word gets hit.  Direct
+            // buffers take the byte-at-a-time path.
+            final byte[] alphabet = {'a', '\r', '\n', (byte) 0x80, (byte) 0xFF};
+            final ByteBuffer buf = ByteBuffer.allocate(1 + random.nextInt(40),
+                run % 4 >= 2);
+            while (buf.hasRemaining())
+                {
+                buf.put(alphabet[random.nextInt(alphabet.length)]);
+                }
+            buf.order(run % 2 == 0 ? ByteOrder.BIG_ENDIAN :
+                ByteOrder.LITTLE_ENDIAN);
+            final int from = random.nextInt(buf.limit());
+            final int to = from + random.nextInt(buf.limit() - from + 1);
+            for (final byte b : alphabet)
+                {
+                assertEquals(naiveIndexOf(buf, from, to, b, b, true),
+                    ByteSearch.indexOf(buf, from, to, b));
+                assertEquals(naiveIndexOf(buf, from, to, b, b, false),
+                    ByteSearch.indexOfNot(buf, from, to, b));
+                assertEquals(naiveIndexOf(buf, from, to, b, (byte) '\n', true),
+                    ByteSearch.indexOfEither(buf, from, to, b, (byte) '\n'));
+                }
+            }
+        }
+
+    @Test public void testCrlfSplitAcrossReads() throws Exception
+        {
+        final List<String> lines = new ArrayList<String>();
+        final ConsumeToCrlfDecodingState state = new ConsumeToCrlfDecodingState()
+            {
+            @Override
+            protected DecodingState finishDecode(final ByteBuffer product,
+                final ProtocolDecoderOutput out)
+                {
+                lines.add(MinaUtils.toAsciiString(product));
+                return this;
+                }
+            };
+        final String[] reads =
+            {"first line that is long\r", "\nsec", "ond\r", "x\r", "", "\n"};
+        for (final String read : reads)
+            {
+            final ByteBuffer in = ByteBuffer.wrap(read.getBytes("US-ASCII"));
+            while (in.hasRemaining())
+                {
+                state.decode(in, null);
+                }
+            }
+        assertEquals(2, lines.size());
+        assertEquals("first line that is long", lines.get(0));
+        assertEquals("second\rx", lines.get(1));
+        }
+
+    private static int naiveIndexOf(final ByteBuffer buf, final int from,
+        final int to, final byte b1, final byte b2, final boolean equal)
+        {
+        for (int i = from; i < to; i++)
+            {
+            final byte b = buf.get(i);
+            if ((b == b1 || b == b2) == equal)
+                {
+                return i;
+                }
+            }
+        return -1;
+        }
+    }
@@ -0,0 +1,190 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.ByteBufferAllocator;
+
+/**
+ * Tests for the output stream that coalesces small writes.
+ */
+public class CoalescingIoSessionOutputStreamTest
+    {
+
+    @Test public void testCoalescing() throws Exception
+        {
+        final IoSessionStub session = new IoSessionStub();
+        final CoalescingIoSessionOutputStream os = 
+            new CoalescingIoSessionOutputStream(session.getSession(), 16, 0);
+        for (int i = 0; i < 10; i++)
+            {
+            os.write(i);
+            }
+        assertEquals(0, session.getWrites().size());
+        os.flush();
+        assertEquals(1, session.getWrites().size());
+        assertEquals(10, session.getWrites().get(0).length);
+
+        final byte[] data = new byte[40];
+        for (int i = 0; i < data.length; i++)
+            {
+            data[i] = (byte) i;
+            }
+        os.write(data);
+        assertEquals(3, session.getWrites().size());
+        os.flush();
+        final List<byte[]> writes = session.getWrites();
+        assertEquals(4, writes.size());
+        for (int i = 0; i < 3; i++)
+            {
+            final byte[] written = writes.get(i + 1);
+            for (int j = 0; j < written.length; j++)
+                {
+                assertEquals(i * 16 + j, written[j]);
+                }
+            }
+        }
+
+    @Test public void testCloseReleasesBuffers() throws Exception
+        {
+        final ByteBufferAllocator allocator = ByteBuffer.getAllocator();
+        final BufferLeakDetector detector = new BufferLeakDetector(
+            new SizeClassByteBufferAllocator(), 1, 0);
+        ByteBuffer.setAllocator(detector);
+        try
+            {
+            final IoSessionStub session = new IoSessionStub();
+            final CoalescingIoSessionOutputStream os = 
+                new CoalescingIoSessionOutputStream(session.getSession(), 
+                    16, 0);
+            os.write(new byte[10]);
+            os.flush();
+            os.write(new byte[40]);
+            os.close();
+            assertEquals(4, session.getWrites().size());
+
+            // MINA releases each buffer once it's written.
+            for (final ByteBuffer buf : session.getWrittenBuffers())
+                {
+                buf.release();
+                }
+            assertEquals(0, detector.getTracked());
+            assertEquals(0, detector.getLeaks());
+            }
+        finally
+            {
+            ByteBuffer.setAllocator(allocator);
+            }
+        }
+
+    @Test public void testMaxDelay() throws Exception
+        {
+        final IoSessionStub session = new IoSessionStub();
+        final CoalescingIoSessionOutputStream os = 
+            new CoalescingIoSessionOutputStream(session.getSession(), 1024, 10);
+        os.write(new byte[] {1, 2, 3});
+        final long end = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < end && 
+            session.getWrites().isEmpty())
+            {
+            Thread.sleep(5);
+            }
+        final List<byte[]> writes = session.getWrites();
+        assertEquals(1, writes.size());
+        assertEquals(3, writes.get(0).length);
+        }
+
+    @Test public void testWriteWindow() throws Exception
+        {
+        final IoSessionStub session = new IoSessionStub(true);
+        final CoalescingIoSessionOutputStream os = 
+            new CoalescingIoSessionOutputStream(session.getSession(), 4, 0);
+        os.setWriteWindow(2, 0);
+        os.write(new byte[8]);
+        assertEquals(2, session.getWrites().size());
+
+        final Thread writer = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    os.write(new byte[4]);
+                    }
+                catch (final IOException e)
+                    {
+                    throw new RuntimeException(e);
+                    }
+                }
+            });
+        writer.start();
+        writer.join(100);
+        assertTrue(writer.isAlive());
+        assertEquals(2, session.getWrites().size());
+        session.completeWrite();
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertEquals(3, session.getWrites().size());
+        session.completeWrites();
+        os.flush();
+        }
+
+    @Test public void testStalledStreamDoesNotBlockTimer() throws Exception
+        {
+        final IoSessionStub stalledSession = new IoSessionStub(true);
+        final CoalescingIoSessionOutputStream stalled =
+            new CoalescingIoSessionOutputStream(
+                stalledSession.getSession(), 1024, 10);
+        stalled.write(new byte[] {1, 2});
+
+        // Hold the stalled stream's lock, as a writer blocked on a full
+        // write window does, until its timed flush has come due.
+        final Field field =
+            CoalescingIoSessionOutputStream.class.getDeclaredField("m_lock");
+        field.setAccessible(true);
+        final Lock lock = (Lock) field.get(stalled);
+        lock.lock();
+        try
+            {
+            Thread.sleep(50);
+            final IoSessionStub activeSession = new IoSessionStub();
+            final CoalescingIoSessionOutputStream active =
+                new CoalescingIoSessionOutputStream(
+                    activeSession.getSession(), 1024, 10);
+            active.write(new byte[] {1, 2, 3});
+            assertTrue(awaitWrites(activeSession, 1));
+            assertEquals(0, stalledSession.getWrites().size());
+            }
+        finally
+            {
+            lock.unlock();
+            }
+
+        // The stalled stream's flush is retried once the lock is free.
+        assertTrue(awaitWrites(stalledSession, 1));
+        assertEquals(2, stalledSession.getWrites().get(0).length);
+        }
+
+    private boolean awaitWrites(final IoSessionStub session, final int writes)
+        throws InterruptedException
+        {
+        final long end = System.currentTimeMillis() + 5000;
+        while (session.getWrites().size() < writes)
+            {
+            if (System.currentTimeMillis() > end)
+                {
+                return false;
+                }
+            Thread.sleep(5);
+            }
+        return true;
+        }
+    }
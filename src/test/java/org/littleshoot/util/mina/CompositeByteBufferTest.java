@@ -0,0 +1,166 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Tests for buffers made of several fragments.
+ */
+public class CompositeByteBufferTest
+    {
+
+    @Test public void testReadsAcrossFragments() throws Exception
+        {
+        final CompositeByteBuffer buf = new CompositeByteBuffer(Arrays.asList(
+            createBuffer(0, 3), createBuffer(3, 1), createBuffer(4, 6)));
+        assertEquals(3, buf.fragments());
+        assertEquals(10, buf.remaining());
+        for (int i = 0; i < 10; i++)
+            {
+            assertEquals(i, buf.get(i));
+            }
+        assertEquals(0, buf.get());
+        assertEquals(1, buf.get());
+
+        final byte[] bytes = new byte[5];
+        buf.get(bytes, 0, bytes.length);
+        for (int i = 0; i < bytes.length; i++)
+            {
+            assertEquals(i + 2, bytes[i]);
+            }
+        assertEquals(7, buf.position());
+        assertEquals(7, buf.get());
+
+        buf.position(0);
+        assertEquals(3, buf.indexOf((byte) 3));
+        assertEquals(2, buf.indexOf(new byte[] {2, 3, 4, 5}));
+        assertEquals(-1, buf.indexOf(new byte[] {2, 4}));
+        assertEquals(0, buf.position());
+
+        final CompositeByteBuffer slice = buf.slice(2, 5);
+        assertEquals(3, slice.fragments());
+        assertEquals(5, slice.remaining());
+        assertEquals(2, slice.get(0));
+        assertEquals(6, slice.get(4));
+        final ByteBuffer combined = slice.toByteBuffer();
+        assertEquals(5, combined.remaining());
+        assertEquals(2, combined.get());
+        }
+
+    @Test public void testGatheringWrite() throws Exception
+        {
+        final CompositeByteBuffer buf = new CompositeByteBuffer(Arrays.asList(
+            createBuffer(0, 3), createBuffer(3, 7)));
+        buf.position(1);
+        buf.limit(8);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = 0;
+        while (buf.hasRemaining())
+            {
+            written += buf.writeTo(new GatheringAdapter(out));
+            }
+        assertEquals(7, written);
+        assertFalse(buf.hasRemaining());
+        final byte[] bytes = out.toByteArray();
+        for (int i = 0; i < bytes.length; i++)
+            {
+            assertEquals(i + 1, bytes[i]);
+            }
+        }
+
+    @Test public void testReleaseFreesFragments() throws Exception
+        {
+        final SizeClassByteBufferAllocator allocator = 
+            new SizeClassByteBufferAllocator();
+        final ByteBuffer first = allocator.allocate(100, false);
+        final ByteBuffer second = allocator.allocate(100, false);
+        final byte[] firstArray = first.array();
+        final byte[] secondArray = second.array();
+        final CompositeByteBuffer buf = 
+            new CompositeByteBuffer(Arrays.asList(first, second));
+        first.release();
+        second.release();
+
+        // Reads and slices don't take references that are never released.
+        final byte[] bytes = new byte[150];
+        buf.get(bytes, 0, bytes.length);
+        final CompositeByteBuffer slice = buf.slice(50, 100);
+        assertEquals(2, slice.fragments());
+
+        buf.release();
+        assertNotSame(firstArray, allocator.allocate(100, false).array());
+        slice.release();
+        final ByteBuffer reused = allocator.allocate(100, false);
+        final ByteBuffer reusedToo = allocator.allocate(100, false);
+        assertSame(secondArray, reused.array());
+        assertSame(firstArray, reusedToo.array());
+        }
+
+    private ByteBuffer createBuffer(final int start, final int length)
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++)
+            {
+            buf.put((byte) (start + i));
+            }
+        buf.flip();
+        return buf;
+        }
+
+    /**
+     * Gathering channel that writes to a stream.
+     */
+    private static final class GatheringAdapter 
+        implements GatheringByteChannel
+        {
+        private final WritableByteChannel m_channel;
+
+        private GatheringAdapter(final ByteArrayOutputStream out)
+            {
+            m_channel = Channels.newChannel(out);
+            }
+
+        public int write(final java.nio.ByteBuffer src) throws IOException
+            {
+            return m_channel.write(src);
+            }
+
+        public long write(final java.nio.ByteBuffer[] srcs, final int offset,
+            final int length) throws IOException
+            {
+            long written = 0;
+            for (int i = offset; i < offset + length; i++)
+                {
+                written += write(srcs[i]);
+                }
+            return written;
+            }
+
+        public long write(final java.nio.ByteBuffer[] srcs) 
+            throws IOException
+            {
+            return write(srcs, 0, srcs.length);
+            }
+
+        public boolean isOpen()
+            {
+            return true;
+            }
+
+        public void close()
+            {
+            }
+        }
+    }
@@ -0,0 +1,192 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.filter.codec.ProtocolDecoder;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderException;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Tests for the state that consumes lines.
+ */
+public class ConsumeToCrlfDecodingStateTest
+    {
+
+    @Test public void testStreamingLongLines() throws Exception
+        {
+        final List<String> results = new ArrayList<String>();
+        final ConsumeToCrlfDecodingState state =
+            new ConsumeToCrlfDecodingState(10)
+            {
+            @Override
+            protected DecodingState lineTooLong(final ByteBuffer chunk,
+                final ProtocolDecoderOutput out)
+                {
+                results.add("chunk:" + MinaUtils.toAsciiString(chunk));
+                return this;
+                }
+
+            @Override
+            protected DecodingState finishDecode(final ByteBuffer product,
+                final ProtocolDecoderOutput out)
+                {
+                results.add(MinaUtils.toAsciiString(product));
+                return this;
+                }
+            };
+        decode(state, "0123456789", "\r\n", "abcdefghij0123456789xy\r",
+            "\nshort\r\n0123456789\r", "z\r\n");
+        final List<String> expected = new ArrayList<String>();
+        expected.add("0123456789");
+        expected.add("chunk:abcdefghij");
+        expected.add("chunk:0123456789");
+        expected.add("xy");
+        expected.add("short");
+        expected.add("chunk:0123456789");
+        expected.add("\rz");
+        assertEquals(expected, results);
+        }
+
+    @Test public void testFailFast() throws Exception
+        {
+        final ConsumeToCrlfDecodingState state =
+            new ConsumeToCrlfDecodingState(4)
+            {
+            @Override
+            protected DecodingState finishDecode(final ByteBuffer product,
+                final ProtocolDecoderOutput out)
+                {
+                return this;
+                }
+            };
+        decode(state, "abcd\r\n", "ab", "cd");
+        try
+            {
+            decode(state, "e");
+            fail("Should have rejected the line");
+            }
+        catch (final ProtocolDecoderException e)
+            {
+            // Expected.
+            }
+        }
+
+    @Test public void testPooledReads() throws Exception
+        {
+        final List<String> results = new ArrayList<String>();
+        final ConsumeToCrlfDecodingState state =
+            new ConsumeToCrlfDecodingState()
+            {
+            @Override
+            protected DecodingState finishDecode(final ByteBuffer product,
+                final ProtocolDecoderOutput out)
+                {
+                results.add(MinaUtils.toAsciiString(product));
+
+                // Lines read in one piece are slices of the read.
+                product.release();
+                return this;
+                }
+            };
+        final PooledReads reads = new PooledReads();
+        reads.decode(state, "first li", "ne\r", "\nsec", "ond\r", "x\r", "", 
+            "\n", "a\r\nb", "c\r", "\r", "\nd");
+        final List<String> expected = new ArrayList<String>();
+        expected.add("first line");
+        expected.add("second\rx");
+        expected.add("a");
+        expected.add("bc\r");
+        assertEquals(expected, results);
+        reads.decode(state, "\r\n");
+        expected.add("d");
+        assertEquals(expected, results);
+        reads.assertAllReleased();
+        }
+
+    @Test public void testDisposeReleasesPartialLine() throws Exception
+        {
+        final ProtocolDecoder decoder = 
+            new StateMachineProtocolDecoder(new LineMachine());
+        final IoSession session = new IoSessionStub().getSession();
+        final PooledReads reads = new PooledReads();
+        reads.decode(decoder, session, "a line ", "that's cut off\r");
+        assertFalse(reads.allReleased());
+
+        // The session goes away part way through the line.
+        decoder.dispose(session);
+        reads.assertAllReleased();
+        }
+
+    @Test public void testReleasingStateMachine() throws Exception
+        {
+        final LineMachine machine = new LineMachine();
+        final PooledReads reads = new PooledReads();
+        reads.decode(machine, "a line ", "that's cut off\r");
+        assertFalse(reads.allReleased());
+
+        machine.release();
+        reads.assertAllReleased();
+        assertEquals(1, machine.m_destroyed);
+
+        // There's nothing left to release or destroy.
+        machine.release();
+        assertEquals(1, machine.m_destroyed);
+        }
+
+    /**
+     * A state machine for lines that never end.
+     */
+    private static final class LineMachine extends DecodingStateMachine
+        {
+        private int m_destroyed;
+
+        @Override
+        protected DecodingState init()
+            {
+            return new ConsumeToCrlfDecodingState()
+                {
+                @Override
+                protected DecodingState finishDecode(final ByteBuffer product,
+                    final ProtocolDecoderOutput out)
+                    {
+                    fail("The line never ends");
+                    return null;
+                    }
+                };
+            }
+
+        @Override
+        protected DecodingState finishDecode(final List<Object> childProducts,
+            final ProtocolDecoderOutput out)
+            {
+            return null;
+            }
+
+        @Override
+        protected void destroy()
+            {
+            m_destroyed++;
+            }
+        }
+
+    private static void decode(final DecodingState state,
+        final String... reads) throws Exception
+        {
+        for (final String read : reads)
+            {
+            final ByteBuffer in = ByteBuffer.wrap(read.getBytes("US-ASCII"));
+            while (in.hasRemaining())
+                {
+                state.decode(in, null);
+                }
+            }
+        }
+    }
@@ -0,0 +1,132 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Tests for the state that consumes up to a multi-byte delimiter.
+ */
+public class ConsumeToDelimiterDecodingStateTest
+    {
+
+    @Test public void testEndOfHeaders() throws Exception
+        {
+        final String message =
+            "INVITE sip:a@b SIP/2.0\r\nVia: x\r\n\r\nbody\r\n\r\n\r\n\r\n";
+        final List<String> expected = new ArrayList<String>();
+        expected.add("INVITE sip:a@b SIP/2.0\r\nVia: x");
+        expected.add("body");
+        expected.add("");
+
+        // Every way of splitting the message in two, and in single bytes.
+        for (int split = 0; split <= message.length(); split++)
+            {
+            assertEquals(expected, decode("\r\n\r\n",
+                message.substring(0, split), message.substring(split)));
+            }
+        assertEquals(expected, decode("\r\n\r\n", message.split("")));
+        }
+
+    @Test public void testPooledReads() throws Exception
+        {
+        final String message = "head\r\nx: y\r\n\r\nbody\r\n\r\n";
+        for (int first = 1; first < message.length(); first++)
+            {
+            for (int second = first; second < message.length(); second++)
+                {
+                final List<String> products = new ArrayList<String>();
+                final PooledReads reads = new PooledReads();
+                reads.decode(newState("\r\n\r\n", products),
+                    message.substring(0, first),
+                    message.substring(first, second),
+                    message.substring(second));
+                assertEquals(naiveSplit(message, "\r\n\r\n"), products);
+                reads.assertAllReleased();
+                }
+            }
+        }
+
+    @Test public void testRandomSplits() throws Exception
+        {
+        final Random random = new Random(3);
+        for (int run = 0; run < 500; run++)
+            {
+            final StringBuilder sb = new StringBuilder();
+            final int length = random.nextInt(60);
+            for (int i = 0; i < length; i++)
+                {
+                sb.append("ab".charAt(random.nextInt(2)));
+                }
+            final String message = sb.toString();
+            final List<String> reads = new ArrayList<String>();
+            int start = 0;
+            while (start < message.length())
+                {
+                final int end = Math.min(message.length(),
+                    start + 1 + random.nextInt(5));
+                reads.add(message.substring(start, end));
+                start = end;
+                }
+            assertEquals(naiveSplit(message, "abba"),
+                decode("abba", reads.toArray(new String[reads.size()])));
+            }
+        }
+
+    private static List<String> naiveSplit(final String message,
+        final String delimiter)
+        {
+        final List<String> products = new ArrayList<String>();
+        int start = 0;
+        int index;
+        while ((index = message.indexOf(delimiter, start)) >= 0)
+            {
+            products.add(message.substring(start, index));
+            start = index + delimiter.length();
+            }
+        return products;
+        }
+
+    private static List<String> decode(final String delimiter,
+        final String... reads) throws Exception
+        {
+        final List<String> products = new ArrayList<String>();
+        final DecodingState state = newState(delimiter, products);
+        for (final String read : reads)
+            {
+            final ByteBuffer in = ByteBuffer.wrap(read.getBytes("US-ASCII"));
+            while (in.hasRemaining())
+                {
+                state.decode(in, null);
+                }
+            }
+        return products;
+        }
+
+    private static DecodingState newState(final String delimiter,
+        final List<String> products) throws Exception
+        {
+        return new ConsumeToDelimiterDecodingState(
+                delimiter.getBytes("US-ASCII"))
+            {
+            @Override
+            protected DecodingState finishDecode(final ByteBuffer product,
+                final ProtocolDecoderOutput out) throws Exception
+                {
+                final byte[] bytes = new byte[product.remaining()];
+                product.get(bytes);
+                products.add(new String(bytes, "US-ASCII"));
+
+                // Products read in one piece are slices of the read.
+                product.release();
+                return this;
+                }
+            };
+        }
+    }
@@ -0,0 +1,77 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Tests for the state that consumes up to one of two terminators.
+ */
+public class ConsumeToTerminatorDecodingStateTest
+    {
+
+    @Test public void testPooledReads() throws Exception
+        {
+        final List<String> products = new ArrayList<String>();
+        final ConsumeToTerminatorDecodingState state =
+            new ConsumeToTerminatorDecodingState((byte) ';', (byte) ',')
+            {
+            @Override
+            protected DecodingState finishDecode(final byte foundTerminator,
+                final ByteBuffer product, final ProtocolDecoderOutput out)
+                {
+                products.add(MinaUtils.toAsciiString(product) +
+                    (char) foundTerminator);
+                return this;
+                }
+            };
+        final PooledReads reads = new PooledReads();
+        reads.decode(state, "ab", "cd", ";ef", "g,", ",h", "i;", "jk", ";",
+            "l", "m", "n,o");
+        final List<String> expected = new ArrayList<String>();
+        expected.add("abcd;");
+        expected.add("efg,");
+        expected.add(",");
+        expected.add("hi;");
+        expected.add("jk;");
+        expected.add("lmn,");
+        assertEquals(expected, products);
+        reads.decode(state, "p;");
+        expected.add("op;");
+        assertEquals(expected, products);
+        reads.assertAllReleased();
+        }
+
+    @Test public void testReleaseMidToken() throws Exception
+        {
+        final List<String> products = new ArrayList<String>();
+        final ConsumeToTerminatorDecodingState state =
+            new ConsumeToTerminatorDecodingState((byte) ';')
+            {
+            @Override
+            protected DecodingState finishDecode(final byte foundTerminator,
+                final ByteBuffer product, final ProtocolDecoderOutput out)
+                {
+                products.add(MinaUtils.toAsciiString(product));
+                return this;
+                }
+            };
+        final PooledReads reads = new PooledReads();
+        reads.decode(state, "ab", "cd");
+        assertFalse(reads.allReleased());
+
+        // Abandoning the token lets go of the reads it was collected from.
+        state.release();
+        reads.assertAllReleased();
+
+        reads.decode(state, "ef;");
+        assertEquals(1, products.size());
+        assertEquals("ef", products.get(0));
+        }
+    }
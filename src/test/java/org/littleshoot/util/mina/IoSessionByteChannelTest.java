@@ -0,0 +1,112 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+
+/**
+ * Tests for the channel view of MINA sessions.
+ */
+public class IoSessionByteChannelTest
+    {
+
+    @Test public void testScatterGather() throws Exception
+        {
+        final IoSessionStub stub = new IoSessionStub();
+        final IoSession session = stub.getSession();
+        final IoSessionInputStream in = 
+            new IoSessionInputStream(session, 0, true);
+        final IoSessionByteChannel channel = new IoSessionByteChannel(
+            session, in, new ByteBufferIoSessionOutputStream(session));
+
+        final ByteBuffer received = ByteBuffer.allocate(10);
+        for (int i = 0; i < 10; i++)
+            {
+            received.put((byte) i);
+            }
+        received.flip();
+        in.write(received);
+
+        final java.nio.ByteBuffer[] dsts = new java.nio.ByteBuffer[] {
+            java.nio.ByteBuffer.allocate(4), java.nio.ByteBuffer.allocate(8)};
+        assertEquals(10, channel.read(dsts));
+        assertEquals(0, dsts[0].remaining());
+        assertEquals(6, dsts[1].position());
+
+        dsts[0].flip();
+        dsts[1].flip();
+        assertEquals(10, channel.write(dsts));
+        final List<ByteBuffer> writes = stub.getWrittenBuffers();
+        assertEquals(1, writes.size());
+        final ByteBuffer written = writes.get(0);
+        assertEquals(10, written.remaining());
+        for (int i = 0; i < 10; i++)
+            {
+            assertEquals(i, written.get());
+            }
+        }
+
+    @Test public void testDisconnectWithBufferedData() throws Exception
+        {
+        final IoSessionStub stub = new IoSessionStub();
+        final IoSession session = stub.getSession();
+        final IoSessionInputStream in = 
+            new IoSessionInputStream(session, 0, true);
+        final IoSessionByteChannel channel = new IoSessionByteChannel(
+            session, in, new ByteBufferIoSessionOutputStream(session));
+
+        final ByteBuffer received = ByteBuffer.allocate(10);
+        for (int i = 0; i < 10; i++)
+            {
+            received.put((byte) i);
+            }
+        received.flip();
+        in.write(received);
+        stub.setConnected(false);
+
+        // Still open, and the buffered data can still be read.
+        assertTrue(channel.isOpen());
+        final java.nio.ByteBuffer dst = java.nio.ByteBuffer.allocate(16);
+        assertEquals(10, channel.read(dst));
+        for (int i = 0; i < 10; i++)
+            {
+            assertEquals(i, dst.get(i));
+            }
+        try
+            {
+            channel.write(java.nio.ByteBuffer.wrap(new byte[] {1}));
+            fail("Should not write to a disconnected session");
+            }
+        catch (final IOException e)
+            {
+            // Expected.
+            }
+        assertTrue(stub.getWrites().isEmpty());
+
+        // The end of the stream once the session's close reaches it.
+        in.close();
+        assertEquals(-1, channel.read(dst));
+        assertTrue(channel.isOpen());
+
+        channel.close();
+        assertFalse(channel.isOpen());
+        try
+            {
+            channel.read(dst);
+            fail("Should not read from a closed channel");
+            }
+        catch (final ClosedChannelException e)
+            {
+            // Expected.
+            }
+        }
+    }
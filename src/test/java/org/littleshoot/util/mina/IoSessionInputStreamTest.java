@@ -0,0 +1,404 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Tests for the input stream that buffers data from MINA sessions.
+ */
+public class IoSessionInputStreamTest
+    {
+
+    @Test public void testSegmentedRead() throws Exception
+        {
+        final IoSessionInputStream is = newStream(0, true);
+        is.write(createBuffer(0, 5));
+        is.write(createBuffer(5, 10));
+        assertEquals(15, is.available());
+
+        final byte[] data = new byte[12];
+        assertEquals(12, is.read(data));
+        for (int i = 0; i < data.length; i++)
+            {
+            assertEquals(i, data[i]);
+            }
+        assertEquals(3, is.available());
+        assertEquals(12, is.read());
+        assertEquals(15, is.getBytesReceived());
+        assertEquals(13, is.getBytesRead());
+
+        is.close();
+        assertEquals(-1, is.read(data));
+        }
+
+    @Test public void testSegmentedHandoff() throws Exception
+        {
+        final IoSessionInputStream is = newStream(0, true);
+        final int writes = 10000;
+        final Thread writer = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                for (int i = 0; i < writes; i++)
+                    {
+                    is.write(createBuffer(i, 7));
+                    }
+                }
+            });
+        writer.start();
+
+        final byte[] data = new byte[writes * 7];
+        int total = 0;
+        while (total < data.length)
+            {
+            total += is.read(data, total, Math.min(13, data.length - total));
+            }
+        writer.join();
+        assertEquals(0, is.available());
+        for (int i = 0; i < writes; i++)
+            {
+            for (int j = 0; j < 7; j++)
+                {
+                assertEquals((byte) (i + j), data[i * 7 + j]);
+                }
+            }
+        }
+
+    @Test public void testReadWatermarks() throws Exception
+        {
+        final IoSessionStub session = new IoSessionStub();
+        final IoSessionInputStream is =
+            new IoSessionInputStream(session.getSession(), 0);
+        is.setReadWatermarks(4, 16);
+        is.write(createBuffer(0, 10));
+        assertFalse(is.isReadSuspended());
+        is.write(createBuffer(10, 10));
+        assertTrue(is.isReadSuspended());
+        assertEquals("suspendRead", readControlCalls(session).get(0));
+
+        final byte[] data = new byte[15];
+        assertEquals(15, is.read(data));
+        assertTrue(is.isReadSuspended());
+        assertEquals(1, is.read(data, 0, 1));
+        assertFalse(is.isReadSuspended());
+        final List<String> calls = readControlCalls(session);
+        assertEquals("resumeRead", calls.get(1));
+        assertEquals(2, calls.size());
+        }
+
+    /**
+     * Returns the calls suspending and resuming reads, leaving out others 
+     * such as the stream looking up the session's buffer strategy.
+     */
+    private static List<String> readControlCalls(final IoSessionStub session)
+        {
+        final List<String> calls = new ArrayList<String>();
+        for (final String call : session.getCalls())
+            {
+            if (call.endsWith("Read"))
+                {
+                calls.add(call);
+                }
+            }
+        return calls;
+        }
+
+    @Test public void testBulkReads() throws Exception
+        {
+        final IoSessionInputStream is = newStream(0, true);
+        is.write(createBuffer(0, 10));
+        is.write(createBuffer(10, 10));
+
+        final java.nio.ByteBuffer dst = java.nio.ByteBuffer.allocate(15);
+        assertEquals(15, is.read(dst));
+        dst.flip();
+        for (int i = 0; i < 15; i++)
+            {
+            assertEquals(i, dst.get());
+            }
+
+        final Thread writer = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                is.write(createBuffer(20, 30));
+                while (is.available() > 0)
+                    {
+                    Thread.yield();
+                    }
+                is.close();
+                }
+            });
+        writer.start();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(35, is.transferTo(out));
+        writer.join();
+        final byte[] transferred = out.toByteArray();
+        for (int i = 0; i < transferred.length; i++)
+            {
+            assertEquals(i + 15, transferred[i]);
+            }
+        }
+
+    @Test public void testReadTimeout() throws Exception
+        {
+        checkReadTimeout(newStream(50, false));
+        checkReadTimeout(newStream(50, true));
+        }
+
+    private void checkReadTimeout(final IoSessionInputStream is) 
+        throws Exception
+        {
+        final long start = System.currentTimeMillis();
+        try
+            {
+            is.read();
+            fail("Should have timed out");
+            }
+        catch (final SocketTimeoutException e)
+            {
+            // Expected.
+            }
+        assertTrue(System.currentTimeMillis() - start >= 40);
+
+        // The stream should still work after a timeout.
+        is.write(createBuffer(7, 1));
+        assertEquals(7, is.read());
+        }
+
+    @Test public void testTransferToChannel() throws Exception
+        {
+        checkTransferToChannel(newStream(0, true));
+        checkTransferToChannel(newStream(0, false));
+        }
+
+    private void checkTransferToChannel(final IoSessionInputStream is)
+        throws Exception
+        {
+        is.write(createBuffer(0, 10));
+        is.write(createBuffer(10, 20));
+        final Thread closer = closeWhenDrained(is);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(30, is.transferTo(Channels.newChannel(out)));
+        closer.join();
+        assertEquals(30, is.getBytesRead());
+        assertEquals(0, is.available());
+        checkSequence(out.toByteArray(), 0, 30);
+        }
+
+    @Test public void testCopyingTransfer() throws Exception
+        {
+        final IoSessionInputStream is = newStream(0, false);
+        is.write(createBuffer(0, 10000));
+        is.write(createBuffer(10000, 5000));
+        final Thread closer = closeWhenDrained(is);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(15000, is.transferTo(out));
+        closer.join();
+        assertEquals(15000, is.getBytesRead());
+        checkSequence(out.toByteArray(), 0, 15000);
+        }
+
+    @Test public void testFailedTransfer() throws Exception
+        {
+        final IoSessionStub session = new IoSessionStub();
+        final IoSessionInputStream is =
+            new IoSessionInputStream(session.getSession(), 0, true);
+        is.setReadWatermarks(4, 16);
+        is.write(createBuffer(0, 10));
+        is.write(createBuffer(10, 10));
+        assertTrue(is.isReadSuspended());
+
+        // Fails on the second segment, after the first has been written.
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final OutputStream out = new OutputStream()
+            {
+            @Override
+            public void write(final int b) throws IOException
+                {
+                throw new IOException("Failed");
+                }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len)
+                throws IOException
+                {
+                if (written.size() > 0)
+                    {
+                    throw new IOException("Failed");
+                    }
+                written.write(b, off, len);
+                }
+            };
+        try
+            {
+            is.transferTo(out);
+            fail("Should have failed");
+            }
+        catch (final IOException e)
+            {
+            // Expected.
+            }
+        assertEquals(10, written.size());
+        assertEquals(10, is.available());
+        assertEquals(10, is.getBytesRead());
+        assertTrue(is.isReadSuspended());
+
+        // The rest can still be read, and reads resume once it's drained.
+        final byte[] data = new byte[10];
+        assertEquals(10, is.read(data));
+        checkSequence(data, 10, 10);
+        assertEquals(0, is.available());
+        assertFalse(is.isReadSuspended());
+        }
+
+    /**
+     * Closes the stream once everything written to it has been read, since
+     * closing discards buffered data.
+     */
+    private Thread closeWhenDrained(final IoSessionInputStream is)
+        {
+        final Thread closer = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                while (is.available() > 0)
+                    {
+                    Thread.yield();
+                    }
+                is.close();
+                }
+            });
+        closer.start();
+        return closer;
+        }
+
+    @Test public void testCloseBetweenWaitAndDequeue() throws Exception
+        {
+        for (int op = 0; op < 5; op++)
+            {
+            final SizeClassByteBufferAllocator allocator = 
+                new SizeClassByteBufferAllocator();
+            final IoSessionInputStream is = newStream(0, true);
+            closeOnDequeue(is);
+            final ByteBuffer buf = allocator.allocate(10, false);
+            final byte[] array = buf.array();
+            buf.put(new byte[10]).flip();
+            is.write(buf);
+            buf.release();
+
+            switch (op)
+                {
+                case 0:
+                    assertEquals(-1, is.read());
+                    break;
+                case 1:
+                    assertEquals(-1, is.read(new byte[10], 0, 10));
+                    break;
+                case 2:
+                    assertEquals(-1, 
+                        is.read(java.nio.ByteBuffer.allocate(10)));
+                    break;
+                case 3:
+                    assertEquals(0, 
+                        is.transferTo(new ByteArrayOutputStream()));
+                    break;
+                default:
+                    assertEquals(0, is.transferTo(
+                        Channels.newChannel(new ByteArrayOutputStream())));
+                    break;
+                }
+            assertEquals(array.length, allocator.getPooledBytes());
+            }
+        }
+
+    @Test public void testCloseReleasesCurrentSegment() throws Exception
+        {
+        final SizeClassByteBufferAllocator allocator = 
+            new SizeClassByteBufferAllocator();
+        final IoSessionInputStream is = newStream(0, true);
+        final ByteBuffer buf = allocator.allocate(10, false);
+        final byte[] array = buf.array();
+        buf.put(new byte[10]).flip();
+        is.write(buf);
+        buf.release();
+
+        assertEquals(0, is.read());
+        assertEquals(0, allocator.getPooledBytes());
+        is.close();
+        assertEquals(array.length, allocator.getPooledBytes());
+        assertEquals(-1, is.read());
+        }
+
+    /**
+     * Makes the stream close itself when the reader first takes a segment
+     * off the queue -- after it's seen there's data but before it gets any.
+     */
+    private void closeOnDequeue(final IoSessionInputStream is) 
+        throws Exception
+        {
+        final Field field = 
+            IoSessionInputStream.class.getDeclaredField("m_segments");
+        field.setAccessible(true);
+        field.set(is, new ConcurrentLinkedQueue<ByteBuffer>()
+            {
+            private static final long serialVersionUID = 1L;
+
+            private boolean m_closing;
+
+            @Override
+            public ByteBuffer poll()
+                {
+                if (!m_closing)
+                    {
+                    m_closing = true;
+                    is.close();
+                    }
+                return super.poll();
+                }
+            });
+        }
+
+    private void checkSequence(final byte[] data, final int start,
+        final int length)
+        {
+        assertEquals(length, data.length);
+        for (int i = 0; i < length; i++)
+            {
+            assertEquals((byte) (start + i), data[i]);
+            }
+        }
+
+    private IoSessionInputStream newStream(final int readTimeout,
+        final boolean segmented)
+        {
+        return new IoSessionInputStream(new IoSessionStub().getSession(),
+            readTimeout, segmented);
+        }
+
+    private ByteBuffer createBuffer(final int start, final int length)
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++)
+            {
+            buf.put((byte) (start + i));
+            }
+        buf.flip();
+        return buf;
+        }
+    }
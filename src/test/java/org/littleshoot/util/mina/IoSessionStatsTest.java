@@ -0,0 +1,145 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Tests for the traffic statistics of sessions.
+ */
+public class IoSessionStatsTest
+    {
+
+    private static final String KEY_MBEAN = 
+        SocketIoHandler.class.getName()+ ".mbean";
+
+    @Test public void testOutputCounters() throws Exception
+        {
+        final IoSessionStub session = new IoSessionStub(true);
+        final ByteBufferIoSessionOutputStream out = 
+            new ByteBufferIoSessionOutputStream(session.getSession());
+        out.setWriteWindow(1, 0);
+        out.write(new byte[10]);
+        assertEquals(10, out.getBytesWritten());
+        assertEquals(10, out.getOutstandingBytes());
+        assertEquals(0, out.getWriteWaitNanos());
+
+        // The window is full, so the next write waits for the first.
+        final Thread writer = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                try
+                    {
+                    out.write(new byte[5]);
+                    }
+                catch (final IOException e)
+                    {
+                    throw new RuntimeException(e);
+                    }
+                }
+            });
+        writer.start();
+        Thread.sleep(50);
+        assertEquals(10, out.getBytesWritten());
+        session.completeWrite();
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+        assertEquals(15, out.getBytesWritten());
+        assertEquals(5, out.getOutstandingBytes());
+        assertTrue(out.getWriteWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(40));
+
+        session.completeWrites();
+        assertEquals(0, out.getOutstandingBytes());
+        assertEquals(15, out.getBytesWritten());
+        }
+
+    @Test public void testSnapshot() throws Exception
+        {
+        final IoSessionStub session = new IoSessionStub(true);
+        session.setRemoteAddress(new InetSocketAddress("10.0.0.1", 5060));
+        final IoSessionInputStream in = 
+            new IoSessionInputStream(session.getSession(), 0, true);
+        final ByteBufferIoSessionOutputStream out = 
+            new ByteBufferIoSessionOutputStream(session.getSession());
+        out.setWriteWindow(4, 0);
+        final IoSessionStats stats = 
+            new IoSessionStats(session.getSession(), in, out);
+
+        in.write(createBuffer(20));
+        in.write(createBuffer(10));
+        assertEquals(8, in.read(new byte[8]));
+        out.write(new byte[7]);
+
+        assertEquals("/10.0.0.1:5060", stats.getRemoteAddress());
+        assertEquals(30, stats.getBytesReceived());
+        assertEquals(8, stats.getBytesRead());
+        assertEquals(22, stats.getBufferedBytes());
+        assertEquals(0, stats.getReadWaitMillis());
+        assertEquals(7, stats.getBytesWritten());
+        assertEquals(7, stats.getOutstandingBytes());
+        assertEquals(0, stats.getWriteWaitMillis());
+        assertTrue(stats.toString().contains("/10.0.0.1:5060"));
+
+        session.completeWrites();
+        assertEquals(0, stats.getOutstandingBytes());
+
+        // Streams that don't keep counts report zero.
+        final IoSessionStats untracked = new IoSessionStats(
+            session.getSession(), new ByteArrayInputStream(new byte[4]), 
+            new ByteArrayOutputStream());
+        assertEquals(0, untracked.getBytesReceived());
+        assertEquals(0, untracked.getBufferedBytes());
+        assertEquals(0, untracked.getBytesWritten());
+        assertEquals(0, untracked.getOutstandingBytes());
+        }
+
+    @Test public void testMBeanRegistration() throws Exception
+        {
+        final SocketIoHandler handler = new SocketIoHandler();
+        handler.setRegisterMBeans(true);
+        final IoSessionStub session = new IoSessionStub();
+        session.setRemoteAddress(new InetSocketAddress("10.0.0.2", 5061));
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+        handler.sessionOpened(session.getSession());
+        final ObjectName name = (ObjectName) session.getAttribute(KEY_MBEAN);
+        assertNotNull(name);
+        assertTrue(server.isRegistered(name));
+        assertEquals("/10.0.0.2:5061", 
+            server.getAttribute(name, "RemoteAddress"));
+
+        handler.messageReceived(session.getSession(), createBuffer(12));
+        assertEquals(Long.valueOf(12), 
+            server.getAttribute(name, "BytesReceived"));
+        assertEquals(Integer.valueOf(12), 
+            server.getAttribute(name, "BufferedBytes"));
+
+        handler.sessionClosed(session.getSession());
+        assertFalse(server.isRegistered(name));
+        assertNull(session.getAttribute(KEY_MBEAN));
+        }
+
+    private ByteBuffer createBuffer(final int length)
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.put(new byte[length]);
+        buf.flip();
+        return buf;
+        }
+    }
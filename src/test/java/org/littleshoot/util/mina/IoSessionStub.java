@@ -0,0 +1,339 @@
+package org.littleshoot.util.mina;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoFuture;
+import org.littleshoot.mina.common.IoFutureListener;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.common.WriteFuture;
+import org.littleshoot.mina.transport.socket.nio.SocketSessionConfig;
+
+/**
+ * A fake {@link IoSession} for tests.  It records the methods called on it
+ * and the bytes written to it, keeps attributes, and can hold back write
+ * completions until a test releases them.  Other methods return
+ * <code>true</code>, zero or <code>null</code>.
+ */
+final class IoSessionStub
+    {
+
+    private final List<String> m_calls = new ArrayList<String>();
+
+    private final List<byte[]> m_writes = new ArrayList<byte[]>();
+
+    private final List<ByteBuffer> m_written = new ArrayList<ByteBuffer>();
+
+    private final LinkedList<Runnable> m_pending = new LinkedList<Runnable>();
+
+    private final Map<Object, Object> m_attributes =
+        new HashMap<Object, Object>();
+
+    private final CountDownLatch m_closed = new CountDownLatch(1);
+
+    private final boolean m_deferWrites;
+
+    private volatile boolean m_connected = true;
+
+    private volatile SocketAddress m_remoteAddress =
+        new InetSocketAddress("127.0.0.1", 7777);
+
+    private final IoSession m_session;
+
+    /**
+     * Creates a session whose writes complete immediately.
+     */
+    IoSessionStub()
+        {
+        this(false);
+        }
+
+    /**
+     * Creates a new session.
+     *
+     * @param deferWrites Whether writes only complete when
+     * {@link #completeWrite()} is called.
+     */
+    IoSessionStub(final boolean deferWrites)
+        {
+        m_deferWrites = deferWrites;
+        m_session = (IoSession) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class[] {IoSession.class},
+            new InvocationHandler()
+                {
+                public Object invoke(final Object proxy, final Method method,
+                    final Object[] args)
+                    {
+                    return invokeSession(method, args);
+                    }
+                });
+        }
+
+    IoSession getSession()
+        {
+        return m_session;
+        }
+
+    /**
+     * Returns the names of the methods called so far, in order.
+     */
+    synchronized List<String> getCalls()
+        {
+        return new ArrayList<String>(m_calls);
+        }
+
+    /**
+     * Returns copies of the bytes written so far, one per write.
+     */
+    synchronized List<byte[]> getWrites()
+        {
+        return new ArrayList<byte[]>(m_writes);
+        }
+
+    /**
+     * Returns the buffers written so far, as they were passed in.
+     */
+    synchronized List<ByteBuffer> getWrittenBuffers()
+        {
+        return new ArrayList<ByteBuffer>(m_written);
+        }
+
+    synchronized Object getAttribute(final Object key)
+        {
+        return m_attributes.get(key);
+        }
+
+    void setConnected(final boolean connected)
+        {
+        m_connected = connected;
+        }
+
+    void setRemoteAddress(final SocketAddress remoteAddress)
+        {
+        m_remoteAddress = remoteAddress;
+        }
+
+    /**
+     * Returns the number of writes that haven't completed yet.
+     */
+    synchronized int getPendingWrites()
+        {
+        return m_pending.size();
+        }
+
+    /**
+     * Completes the oldest write that hasn't completed yet.
+     */
+    void completeWrite()
+        {
+        final Runnable completion;
+        synchronized (this)
+            {
+            completion = m_pending.removeFirst();
+            }
+        completion.run();
+        }
+
+    /**
+     * Completes all writes that haven't completed yet.
+     */
+    void completeWrites()
+        {
+        while (getPendingWrites() > 0)
+            {
+            completeWrite();
+            }
+        }
+
+    /**
+     * Waits for the session to be closed.
+     *
+     * @return <code>true</code> if it was closed in time.
+     */
+    boolean awaitClose(final long timeout, final TimeUnit unit)
+        throws InterruptedException
+        {
+        return m_closed.await(timeout, unit);
+        }
+
+    private Object invokeSession(final Method method, final Object[] args)
+        {
+        final String name = method.getName();
+        synchronized (this)
+            {
+            m_calls.add(name);
+            if (name.equals("write"))
+                {
+                final ByteBuffer buf = (ByteBuffer) args[0];
+                final byte[] bytes = new byte[buf.remaining()];
+                buf.duplicate().get(bytes);
+                m_writes.add(bytes);
+                m_written.add(buf);
+                return newFuture();
+                }
+            if (name.equals("setAttribute"))
+                {
+                return m_attributes.put(args[0], args[1]);
+                }
+            if (name.equals("getAttribute"))
+                {
+                return m_attributes.get(args[0]);
+                }
+            if (name.equals("removeAttribute"))
+                {
+                return m_attributes.remove(args[0]);
+                }
+            }
+        if (name.equals("close"))
+            {
+            m_connected = false;
+            m_closed.countDown();
+            return newCompletedFuture(method.getReturnType());
+            }
+        if (name.equals("isConnected"))
+            {
+            return Boolean.valueOf(m_connected);
+            }
+        if (name.equals("isClosing"))
+            {
+            return Boolean.valueOf(!m_connected);
+            }
+        if (name.equals("getRemoteAddress"))
+            {
+            return m_remoteAddress;
+            }
+        if (name.equals("getConfig"))
+            {
+            return newConfig();
+            }
+        return defaultValue(method.getReturnType());
+        }
+
+    /**
+     * Creates the future for a write.  This is called holding the lock.
+     */
+    private WriteFuture newFuture()
+        {
+        final List<IoFutureListener> listeners =
+            new ArrayList<IoFutureListener>();
+        final boolean[] done = new boolean[] {!m_deferWrites};
+        final WriteFuture future = (WriteFuture) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class[] {WriteFuture.class},
+            new InvocationHandler()
+                {
+                public Object invoke(final Object proxy, final Method method,
+                    final Object[] args)
+                    {
+                    if (method.getName().equals("addListener"))
+                        {
+                        final IoFutureListener listener =
+                            (IoFutureListener) args[0];
+                        synchronized (listeners)
+                            {
+                            if (!done[0])
+                                {
+                                listeners.add(listener);
+                                return null;
+                                }
+                            }
+                        listener.operationComplete((IoFuture) proxy);
+                        return null;
+                        }
+                    if (method.getReturnType() == Boolean.TYPE)
+                        {
+                        synchronized (listeners)
+                            {
+                            return Boolean.valueOf(done[0]);
+                            }
+                        }
+                    return defaultValue(method.getReturnType());
+                    }
+                });
+        if (m_deferWrites)
+            {
+            m_pending.add(new Runnable()
+                {
+                public void run()
+                    {
+                    final List<IoFutureListener> toNotify;
+                    synchronized (listeners)
+                        {
+                        done[0] = true;
+                        toNotify = new ArrayList<IoFutureListener>(listeners);
+                        }
+                    for (final IoFutureListener listener : toNotify)
+                        {
+                        listener.operationComplete(future);
+                        }
+                    }
+                });
+            }
+        return future;
+        }
+
+    /**
+     * Creates a future of the specified type that's already completed.
+     */
+    private Object newCompletedFuture(final Class<?> type)
+        {
+        return Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class[] {type},
+            new InvocationHandler()
+                {
+                public Object invoke(final Object proxy, final Method method,
+                    final Object[] args)
+                    {
+                    if (method.getName().equals("addListener"))
+                        {
+                        ((IoFutureListener) args[0]).operationComplete(
+                            (IoFuture) proxy);
+                        return null;
+                        }
+                    return defaultValue(method.getReturnType());
+                    }
+                });
+        }
+
+    private SocketSessionConfig newConfig()
+        {
+        return (SocketSessionConfig) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] {SocketSessionConfig.class},
+            new InvocationHandler()
+                {
+                public Object invoke(final Object proxy, final Method method,
+                    final Object[] args)
+                    {
+                    return defaultValue(method.getReturnType());
+                    }
+                });
+        }
+
+    private static Object defaultValue(final Class<?> type)
+        {
+        if (type == Boolean.TYPE)
+            {
+            return Boolean.TRUE;
+            }
+        if (type == Long.TYPE)
+            {
+            return Long.valueOf(0);
+            }
+        if (type == Integer.TYPE)
+            {
+            return Integer.valueOf(0);
+            }
+        return null;
+        }
+    }
@@ -0,0 +1,84 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Tests for the keyword table.
+ */
+public class KeywordTableTest
+    {
+
+    private enum Method
+        {
+        INVITE, ACK, BYE, CANCEL, OPTIONS, REGISTER
+        }
+
+    @Test public void testEnumKeywords() throws Exception
+        {
+        final KeywordTable<Method> table =
+            KeywordTable.forEnum(Method.class, false);
+        assertEquals(6, table.size());
+        for (final Method method : Method.values())
+            {
+            assertSame(method, table.get(wrap("x " + method.name() + " y"),
+                2, 2 + method.name().length()));
+            }
+        assertNull(table.get(wrap("invite")));
+        assertNull(table.get(wrap("INVIT")));
+        assertNull(table.get(wrap("INVITES")));
+        assertNull(table.get(wrap("")));
+        }
+
+    @Test public void testHeaderNames() throws Exception
+        {
+        final KeywordTable<String> table = KeywordTable.forStrings(
+            Arrays.asList("Via", "Content-Length", "Call-ID", "CSeq", "To"),
+            true);
+        final String contentLength = "Content-Length";
+        assertSame(table.decode(wrap(contentLength)),
+            table.decode(wrap("content-LENGTH")));
+        assertEquals(contentLength, table.decode(wrap("CONTENT-LENGTH")));
+        assertEquals("X-Custom", table.decode(wrap("X-Custom")));
+
+        final ByteBuffer buf = wrap("Via");
+        table.decode(buf);
+        assertEquals(0, buf.position());
+        assertEquals(3, buf.limit());
+        }
+
+    @Test public void testManyKeywords() throws Exception
+        {
+        final List<String> keywords = new ArrayList<String>();
+        for (int i = 0; i < 300; i++)
+            {
+            keywords.add("Header-" + i);
+            }
+        final KeywordTable<String> table =
+            KeywordTable.forStrings(keywords, false);
+        for (final String keyword : keywords)
+            {
+            assertSame(keyword, table.get(wrap(keyword)));
+            }
+        assertNull(table.get(wrap("Header-300")));
+        }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateIgnoringCase() throws Exception
+        {
+        KeywordTable.forStrings(Arrays.asList("Via", "VIA"), true);
+        }
+
+    private static ByteBuffer wrap(final String str) throws Exception
+        {
+        return ByteBuffer.wrap(str.getBytes("US-ASCII"));
+        }
+    }
@@ -0,0 +1,100 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Tests for the codec utilities.
+ */
+public class MinaCodecUtilsTest
+    {
+
+    @Test public void testAppendString() throws Exception
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(16);
+        buf.setAutoExpand(true);
+        MinaCodecUtils.appendString(buf, "a\tb\rc\u007fd");
+        assertEquals("a\tb c d", read(buf));
+
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++)
+            {
+            sb.append((char) ('a' + i % 26));
+            }
+        MinaCodecUtils.appendString(buf, sb.toString());
+        assertEquals(sb.toString(), read(buf));
+        }
+
+    @Test public void testAppendToken() throws Exception
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(16);
+        buf.setAutoExpand(true);
+        for (int i = 0; i < 3; i++)
+            {
+            MinaCodecUtils.appendToken(buf, "Content-Length: ");
+            MinaCodecUtils.appendString(buf, String.valueOf(i));
+            MinaCodecUtils.appendCRLF(buf);
+            }
+        assertEquals("Content-Length: 0\r\nContent-Length: 1\r\n" +
+            "Content-Length: 2\r\n", read(buf));
+        }
+
+    @Test public void testParseNumbers() throws Exception
+        {
+        assertEquals(1234, MinaCodecUtils.parseDecimal(wrap("1234")));
+        assertEquals(Long.MAX_VALUE,
+            MinaCodecUtils.parseDecimal(wrap(String.valueOf(Long.MAX_VALUE))));
+        assertEquals(-1,
+            MinaCodecUtils.parseDecimal(wrap("9223372036854775808")));
+        assertEquals(-1, MinaCodecUtils.parseDecimal(wrap("")));
+        assertEquals(-1, MinaCodecUtils.parseDecimal(wrap("12a")));
+        assertEquals(-1, MinaCodecUtils.parseDecimal(wrap("-1")));
+        assertEquals(42,
+            MinaCodecUtils.parseDecimal(wrap("CSeq: 42 INVITE"), 6, 8));
+
+        assertEquals(0x1aF, MinaCodecUtils.parseHex(wrap("1aF")));
+        assertEquals(Long.MAX_VALUE,
+            MinaCodecUtils.parseHex(wrap("7fffffffffffffff")));
+        assertEquals(-1, MinaCodecUtils.parseHex(wrap("8000000000000000")));
+        assertEquals(-1, MinaCodecUtils.parseHex(wrap("1g")));
+
+        for (int b = 0; b < 256; b++)
+            {
+            final boolean hex = Character.digit((char) b, 16) != -1 && b < 128;
+            assertEquals(hex, MinaCodecUtils.isHex((byte) b));
+            assertEquals(hex ? Character.digit((char) b, 16) : -1,
+                MinaCodecUtils.hexAsciiToDecimal((byte) b));
+            }
+        }
+
+    @Test public void testPutAsciiNumbers() throws Exception
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(4);
+        buf.setAutoExpand(true);
+        final long[] values = {0, 7, -7, 10, 1234567890L, Long.MAX_VALUE,
+            Long.MIN_VALUE};
+        for (final long value : values)
+            {
+            MinaCodecUtils.putAsciiLong(buf, value);
+            assertEquals(String.valueOf(value), read(buf));
+            }
+        MinaCodecUtils.putAsciiInt(buf, Integer.MIN_VALUE);
+        assertEquals(String.valueOf(Integer.MIN_VALUE), read(buf));
+        }
+
+    private static ByteBuffer wrap(final String str) throws Exception
+        {
+        return ByteBuffer.wrap(str.getBytes("US-ASCII"));
+        }
+
+    private static String read(final ByteBuffer buf) throws Exception
+        {
+        buf.flip();
+        final byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        buf.clear();
+        return new String(bytes, "US-ASCII");
+        }
+    }
@@ -0,0 +1,87 @@
+package org.littleshoot.util.mina;
+
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Rough benchmark comparing {@link MinaUtils#getString(ByteBuffer)} with 
+ * decoding through a {@link CharsetDecoder}, which is what it used to do.
+ * Run it with:
+ * <pre>
+ * java org.littleshoot.util.mina.MinaUtilsBenchmark
+ * </pre>
+ */
+public final class MinaUtilsBenchmark
+    {
+
+    private static final int ITERATIONS = 2000000;
+
+    private MinaUtilsBenchmark()
+        {
+        // Not instantiable.
+        }
+
+    public static void main(final String[] args) throws Exception
+        {
+        final byte[] line = 
+            "Via: SIP/2.0/UDP pc33.atlanta.com;branch=z9hG4bK776asdhds".
+                getBytes("US-ASCII");
+        for (final boolean direct : new boolean[] {false, true})
+            {
+            final ByteBuffer buf = ByteBuffer.allocate(line.length, direct);
+            buf.put(line);
+            buf.flip();
+            for (int run = 0; run < 3; run++)
+                {
+                final long decoder = timeDecoder(buf);
+                final long fast = timeFast(buf);
+                System.out.println((direct ? "direct" : "heap") + 
+                    " decoder: " + decoder / ITERATIONS + " ns/op, " + 
+                    "getString: " + fast / ITERATIONS + " ns/op");
+                }
+            }
+        }
+
+    private static long timeDecoder(final ByteBuffer buf) 
+        throws CharacterCodingException
+        {
+        final CharsetDecoder decoder = 
+            Charset.forName("US-ASCII").newDecoder();
+        int length = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            {
+            decoder.reset();
+            length += buf.getString(decoder).length();
+            buf.rewind();
+            }
+        final long elapsed = System.nanoTime() - start;
+        consume(length);
+        return elapsed;
+        }
+
+    private static long timeFast(final ByteBuffer buf)
+        {
+        int length = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            {
+            length += MinaUtils.getString(buf).length();
+            buf.rewind();
+            }
+        final long elapsed = System.nanoTime() - start;
+        consume(length);
+        return elapsed;
+        }
+
+    private static void consume(final int length)
+        {
+        if (length == 42)
+            {
+            System.out.println();
+            }
+        }
+    }
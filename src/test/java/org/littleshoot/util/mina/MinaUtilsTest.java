@@ -0,0 +1,80 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collection;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Tests for the MINA utility functions.
+ */
+public class MinaUtilsTest
+    {
+
+    @Test public void testGetString() throws Exception
+        {
+        checkGetString(false);
+        checkGetString(true);
+        }
+
+    @Test public void testSplitToSlices() throws Exception
+        {
+        final SizeClassByteBufferAllocator allocator = 
+            new SizeClassByteBufferAllocator();
+        final ByteBuffer buf = allocator.allocate(100, false);
+        final byte[] array = buf.array();
+        for (int i = 0; i < 25; i++)
+            {
+            buf.put((byte) i);
+            }
+        buf.flip();
+
+        final Collection<ByteBuffer> slices = MinaUtils.splitToSlices(buf, 10);
+        assertEquals(3, slices.size());
+        assertEquals(0, buf.position());
+        assertEquals(25, buf.limit());
+        int expected = 0;
+        for (final ByteBuffer slice : slices)
+            {
+            while (slice.hasRemaining())
+                {
+                assertEquals(expected++, slice.get());
+                }
+            }
+        assertEquals(25, expected);
+
+        // The slices keep the memory until they're released.
+        buf.release();
+        assertNotSame(array, allocator.allocate(100, false).array());
+        for (final ByteBuffer slice : slices)
+            {
+            slice.release();
+            }
+        assertSame(array, allocator.allocate(100, false).array());
+        }
+
+    private void checkGetString(final boolean direct)
+        {
+        final ByteBuffer buf = ByteBuffer.allocate(32, direct);
+        buf.put("INVITE sip:a@b".getBytes());
+        buf.put((byte) 0);
+        buf.put("rest".getBytes());
+        buf.flip();
+
+        assertEquals("INVITE sip:a@b", MinaUtils.toAsciiString(buf));
+        assertEquals(0, buf.position());
+        assertEquals("INVITE sip:a@b", MinaUtils.getString(buf));
+        assertEquals(15, buf.position());
+        assertEquals("rest", MinaUtils.getString(buf));
+        assertEquals(buf.limit(), buf.position());
+
+        final ByteBuffer bad = ByteBuffer.allocate(4, direct);
+        bad.put((byte) 'a').put((byte) 0xC3).put((byte) 0xA9).flip();
+        assertEquals("", MinaUtils.getString(bad));
+        assertEquals(0, bad.position());
+        }
+    }
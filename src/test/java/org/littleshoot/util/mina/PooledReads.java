@@ -0,0 +1,124 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.common.IoSession;
+import org.littleshoot.mina.filter.codec.ProtocolDecoder;
+
+/**
+ * Feeds reads to decoding states the way MINA does, for tests.  Each read
+ * arrives in a pooled buffer that's released once the states have decoded
+ * it, and the released memory is then scribbled over by another
+ * allocation, so a state that keeps bytes from an earlier read without
+ * holding on to its buffer sees them change.
+ */
+final class PooledReads
+    {
+
+    private final SizeClassByteBufferAllocator m_allocator =
+        new SizeClassByteBufferAllocator();
+
+    /**
+     * The memory handed out so far, to check it all comes back.
+     */
+    private final Map<byte[], Boolean> m_arrays =
+        new IdentityHashMap<byte[], Boolean>();
+
+    /**
+     * Decodes the specified reads, one buffer each.
+     *
+     * @param state The state to start in.
+     * @param reads The reads, in order.
+     * @return The state after the last read, or <code>null</code> if a
+     * state finished the decoding.
+     */
+    DecodingState decode(final DecodingState state, final String... reads)
+        throws Exception
+        {
+        DecodingState current = state;
+        for (final String read : reads)
+            {
+            final byte[] bytes = read.getBytes("US-ASCII");
+            final ByteBuffer in = allocate(bytes.length);
+            in.put(bytes);
+            in.flip();
+            while (in.hasRemaining() && current != null)
+                {
+                current = current.decode(in, null);
+                }
+            in.release();
+            scribble();
+            }
+        return current;
+        }
+
+    /**
+     * Decodes the specified reads with a protocol decoder, one buffer each.
+     *
+     * @param decoder The decoder.
+     * @param session The session the reads arrive on.
+     * @param reads The reads, in order.
+     */
+    void decode(final ProtocolDecoder decoder, final IoSession session,
+        final String... reads) throws Exception
+        {
+        for (final String read : reads)
+            {
+            final byte[] bytes = read.getBytes("US-ASCII");
+            final ByteBuffer in = allocate(bytes.length);
+            in.put(bytes);
+            in.flip();
+            decoder.decode(session, in, null);
+            in.release();
+            scribble();
+            }
+        }
+
+    /**
+     * Checks that the memory of every read has been returned to the pool.
+     */
+    void assertAllReleased()
+        {
+        assertEquals(allocatedBytes(), m_allocator.getPooledBytes());
+        }
+
+    /**
+     * Returns whether the memory of every read has been returned to the
+     * pool.
+     *
+     * @return <code>true</code> if it has, otherwise <code>false</code>.
+     */
+    boolean allReleased()
+        {
+        return allocatedBytes() == m_allocator.getPooledBytes();
+        }
+
+    private long allocatedBytes()
+        {
+        long total = 0;
+        for (final byte[] array : m_arrays.keySet())
+            {
+            total += array.length;
+            }
+        return total;
+        }
+
+    private ByteBuffer allocate(final int capacity)
+        {
+        final ByteBuffer buf = m_allocator.allocate(capacity, false);
+        m_arrays.put(buf.array(), Boolean.TRUE);
+        return buf;
+        }
+
+    private void scribble()
+        {
+        final ByteBuffer buf = allocate(1);
+        Arrays.fill(buf.array(), (byte) '#');
+        buf.release();
+        }
+    }
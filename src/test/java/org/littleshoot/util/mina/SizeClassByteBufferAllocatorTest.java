@@ -0,0 +1,127 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+
+/**
+ * Tests for the pooling allocator.
+ */
+public class SizeClassByteBufferAllocatorTest
+    {
+
+    @Test public void testReuse() throws Exception
+        {
+        final SizeClassByteBufferAllocator allocator = 
+            new SizeClassByteBufferAllocator();
+        final ByteBuffer buf = allocator.allocate(100, false);
+        assertEquals(100, buf.capacity());
+        assertEquals(100, buf.remaining());
+        final byte[] array = buf.array();
+        buf.release();
+
+        final ByteBuffer reused = allocator.allocate(120, false);
+        assertSame(array, reused.array());
+        assertEquals(120, reused.capacity());
+
+        // Derived buffers keep the memory from being reused.
+        final ByteBuffer dup = reused.duplicate();
+        reused.release();
+        final ByteBuffer other = allocator.allocate(100, false);
+        assertNotSame(array, other.array());
+        dup.release();
+        assertSame(array, allocator.allocate(100, false).array());
+        }
+
+    @Test public void testAutoExpand() throws Exception
+        {
+        final SizeClassByteBufferAllocator allocator = 
+            new SizeClassByteBufferAllocator();
+        final ByteBuffer buf = allocator.allocate(8, false);
+        buf.setAutoExpand(true);
+        for (int i = 0; i < 1000; i++)
+            {
+            buf.put((byte) i);
+            }
+        buf.flip();
+        assertEquals(1000, buf.remaining());
+        for (int i = 0; i < 1000; i++)
+            {
+            assertEquals((byte) i, buf.get());
+            }
+        buf.release();
+        }
+
+    @Test public void testPoolLimitIncludesThreadCaches() throws Exception
+        {
+        final SizeClassByteBufferAllocator allocator = 
+            new SizeClassByteBufferAllocator(1024, 1024);
+        final ByteBuffer[] bufs = new ByteBuffer[64];
+        for (int i = 0; i < bufs.length; i++)
+            {
+            bufs[i] = allocator.allocate(64, false);
+            }
+
+        // Released on other threads, which stay alive with their caches.
+        final CountDownLatch released = new CountDownLatch(bufs.length);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread[] threads = new Thread[bufs.length];
+        for (int i = 0; i < bufs.length; i++)
+            {
+            final ByteBuffer buf = bufs[i];
+            threads[i] = new Thread(new Runnable()
+                {
+                public void run()
+                    {
+                    buf.release();
+                    released.countDown();
+                    try
+                        {
+                        done.await();
+                        }
+                    catch (final InterruptedException e)
+                        {
+                        Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            threads[i].start();
+            }
+        released.await();
+        assertEquals(1024, allocator.getPooledBytes());
+        done.countDown();
+        for (final Thread thread : threads)
+            {
+            thread.join();
+            }
+        assertEquals(1024, allocator.getPooledBytes());
+        }
+
+    @Test public void testExitedThreadCacheIsDrained() throws Exception
+        {
+        final SizeClassByteBufferAllocator allocator = 
+            new SizeClassByteBufferAllocator();
+        final byte[][] array = new byte[1][];
+        final Thread thread = new Thread(new Runnable()
+            {
+            public void run()
+                {
+                final ByteBuffer buf = allocator.allocate(100, false);
+                array[0] = buf.array();
+                buf.release();
+                }
+            });
+        thread.start();
+        thread.join();
+
+        // The exited thread's memory is back in the shared arena.
+        assertEquals(128, allocator.getPooledBytes());
+        assertSame(array[0], allocator.allocate(100, false).array());
+        assertEquals(0, allocator.getPooledBytes());
+        }
+    }
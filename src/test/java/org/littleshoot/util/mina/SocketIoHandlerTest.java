@@ -1,6 +1,7 @@
 package org.littleshoot.util.mina;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
@@ -8,6 +9,7 @@ import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
@@ -20,6 +22,31 @@ import org.littleshoot.mina.transport.socket.nio.SocketConnector;
 public class SocketIoHandlerTest
     {
 
+    @Test public void testSocketHandler() throws Exception
+        {
+        final AtomicReference<Socket> ref = new AtomicReference<Socket>();
+        final AtomicReference<String> threadName = 
+            new AtomicReference<String>();
+        final SocketIoHandler handler = new SocketIoHandler();
+        handler.setSocketHandler(new IoSessionSocketHandler()
+            {
+            public void onSocket(final Socket socket)
+                {
+                threadName.set(Thread.currentThread().getName());
+                ref.set(socket);
+                }
+            });
+        
+        final IoSessionStub session = new IoSessionStub();
+        session.setRemoteAddress(new InetSocketAddress("10.0.0.1", 5060));
+        handler.sessionOpened(session.getSession());
+        assertTrue(session.awaitClose(5, TimeUnit.SECONDS));
+        assertTrue(ref.get() == session.getAttribute("SOCKET"));
+
+        assertEquals("IoSession-Socket-Thread-/10.0.0.1:5060", 
+            threadName.get());
+        }
+
     @Test public void testSocket() throws Exception
         {
         final AtomicReference<Socket> ref = new AtomicReference<Socket>();
@@ -0,0 +1,119 @@
+package org.littleshoot.util.mina;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.littleshoot.mina.common.ByteBuffer;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderException;
+import org.littleshoot.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Tests for the streaming fixed length decoding state.
+ */
+public class StreamingFixedLengthDecodingStateTest
+    {
+
+    @Test public void testChunks() throws Exception
+        {
+        final List<String> chunks = new ArrayList<String>();
+        final DecodingState state = newState(12, Long.MAX_VALUE, chunks);
+
+        assertEquals(state, state.decode(wrap("hello "), null));
+        final ByteBuffer in = wrap("wor");
+        assertEquals(state, state.decode(in, null));
+        final ByteBuffer rest = wrap("ld!NEXT");
+        assertNull(state.decode(rest, null));
+        assertEquals("NEXT", MinaUtils.toAsciiString(rest));
+
+        assertEquals(3, chunks.size());
+        assertEquals("hello ", chunks.get(0));
+        assertEquals("wor", chunks.get(1));
+        assertEquals("ld!|last", chunks.get(2));
+
+        // The state starts over for the next body.
+        state.decode(wrap("0123456789ab"), null);
+        assertEquals("0123456789ab|last", chunks.get(3));
+        }
+
+    @Test public void testEmptyBody() throws Exception
+        {
+        final List<String> chunks = new ArrayList<String>();
+        final ByteBuffer in = wrap("x");
+        assertNull(newState(0, 10, chunks).decode(in, null));
+        assertEquals("|last", chunks.get(0));
+        assertEquals(1, in.remaining());
+        }
+
+    @Test public void testMaxLength() throws Exception
+        {
+        final List<String> chunks = new ArrayList<String>();
+        try
+            {
+            newState(5L * 1024 * 1024 * 1024, 1024 * 1024, chunks).decode(
+                wrap("data"), null);
+            fail("Should have rejected the length");
+            }
+        catch (final ProtocolDecoderException e)
+            {
+            // Expected.
+            }
+        assertEquals(0, chunks.size());
+        }
+
+    @Test public void testKeptChunksPinTheirReads() throws Exception
+        {
+        final List<ByteBuffer> kept = new ArrayList<ByteBuffer>();
+        final DecodingState state = 
+            new StreamingFixedLengthDecodingState(10)
+            {
+            @Override
+            protected DecodingState finishChunk(final ByteBuffer chunk,
+                final boolean last, final ProtocolDecoderOutput out)
+                {
+                kept.add(chunk);
+                return last ? null : this;
+                }
+            };
+        final PooledReads reads = new PooledReads();
+        assertNull(reads.decode(state, "01234", "56789"));
+        assertEquals(2, kept.size());
+
+        // The chunks still hold the reads' memory, so it isn't reused.
+        assertFalse(reads.allReleased());
+        assertEquals("01234", MinaUtils.toAsciiString(kept.get(0)));
+        assertEquals("56789", MinaUtils.toAsciiString(kept.get(1)));
+
+        for (final ByteBuffer chunk : kept)
+            {
+            chunk.release();
+            }
+        reads.assertAllReleased();
+        }
+
+    private static DecodingState newState(final long length,
+        final long maxLength, final List<String> chunks)
+        {
+        return new StreamingFixedLengthDecodingState(length, maxLength)
+            {
+            @Override
+            protected DecodingState finishChunk(final ByteBuffer chunk,
+                final boolean last, final ProtocolDecoderOutput out)
+                {
+                chunks.add(MinaUtils.toAsciiString(chunk) + 
+                    (last ? "|last" : ""));
+                return last ? null : this;
+                }
+            };
+        }
+
+    private static ByteBuffer wrap(final String str) throws Exception
+        {
+        return ByteBuffer.wrap(str.getBytes("US-ASCII"));
+        }
+    }